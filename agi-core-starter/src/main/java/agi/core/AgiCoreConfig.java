@@ -1,10 +1,17 @@
 package agi.core;
 
+import agi.core.form.util.CurrentInstanceTaskDecorator;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 @Configuration
 @ComponentScan("agi.core")
@@ -15,4 +22,83 @@ public class AgiCoreConfig {
     public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
         return new PropertySourcesPlaceholderConfigurer();
     }
+
+    /**
+     * bounded pool of the long running form operations: bulk deletes, imports, index builds
+     */
+    @Bean
+    public ThreadPoolTaskExecutor agiTaskExecutor(@Value("${agi.tasks.pool-size:4}") int poolSize,
+                                                  @Value("${agi.tasks.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("agi-task-");
+        executor.setTaskDecorator(new CurrentInstanceTaskDecorator());
+        return executor;
+    }
+
+    /**
+     * pool of the exports, see {@link agi.core.io.EntityExporter}, kept apart so downloads don't hold up agiTaskExecutor.
+     * An export is rejected as soon as every thread is busy, a queued one would hold the download request meanwhile
+     */
+    @Bean
+    public ThreadPoolTaskExecutor agiExportExecutor(@Value("${agi.export.pool-size:2}") int poolSize) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("agi-export-");
+        executor.setTaskDecorator(new CurrentInstanceTaskDecorator());
+        return executor;
+    }
+
+    /**
+     * bounded pool of the background grid queries, see {@link agi.core.dao.AsyncGenericBackendDataProvider}.
+     * Runs on virtual threads when the JDK has them, a query rejected by the full queue runs on the request thread,
+     * once the pool is shut down the queries are rejected by RejectedExecutionException instead of being dropped
+     */
+    @Bean
+    public ThreadPoolTaskExecutor agiQueryExecutor(@Value("${agi.grid.async.pool-size:16}") int poolSize,
+                                                   @Value("${agi.grid.async.queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("agi-query-");
+        ThreadFactory virtualThreadFactory = getVirtualThreadFactory("agi-query-");
+        if (virtualThreadFactory != null) executor.setThreadFactory(virtualThreadFactory);
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            if (pool.isShutdown()) throw new RejectedExecutionException("agiQueryExecutor is shut down");
+            task.run();
+        });
+        executor.setTaskDecorator(new CurrentInstanceTaskDecorator());
+        return executor;
+    }
+
+    /**
+     * timer of the periodic form checks, e.g. the passivation of inactive tabs by {@link agi.core.form.MainFormHandler}
+     */
+    @Bean
+    public ThreadPoolTaskScheduler agiFormScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("agi-forms-");
+        scheduler.setDaemon(true);
+        return scheduler;
+    }
+
+    /**
+     * Thread.ofVirtual() of JDK 21, the starter is compiled for Java 8
+     */
+    private static ThreadFactory getVirtualThreadFactory(String namePrefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
 }
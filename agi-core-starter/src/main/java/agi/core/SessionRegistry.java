@@ -0,0 +1,107 @@
+package agi.core;
+
+import agi.core.form.IUIHandler;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.WrappedSession;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpSessionEvent;
+import javax.servlet.http.HttpSessionListener;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * UI handlers of the HTTP sessions, so the UIs of a session (e.g. browser tabs) share one handler.
+ * Entries are removed when the HTTP or the Vaadin session is destroyed, at most agi.sessions.max-sessions
+ * are kept, the least recently used are evicted first. Handlers are weakly referenced as before.
+ * Live sessions and retained handlers are exported to JMX
+ */
+@Slf4j
+@Component
+@ManagedResource(objectName = "agi:type=SessionRegistry")
+public class SessionRegistry implements HttpSessionListener {
+
+    @Value("${agi.sessions.max-sessions:10000}")
+    private long maxSessions;
+
+    private Cache<String, IUIHandler> handlers;
+    private final Set<VaadinService> services = ConcurrentHashMap.newKeySet();
+    private final AtomicLong liveSessions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        handlers = CacheBuilder.newBuilder()
+                .maximumSize(maxSessions)
+                .weakValues()
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return handler of the session of the request, created by the factory for a new session
+     */
+    public IUIHandler getUIHandler(VaadinRequest request, Supplier<IUIHandler> factory) {
+        VaadinService service = request.getService();
+        if (services.add(service)) service.addSessionDestroyListener(event -> remove(event.getSession()));
+        try {
+            return handlers.get(request.getWrappedSession().getId(), factory::get);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void remove(String sessionId) {
+        handlers.invalidate(sessionId);
+    }
+
+    @Override
+    public void sessionCreated(HttpSessionEvent event) {
+        liveSessions.incrementAndGet();
+    }
+
+    @Override
+    public void sessionDestroyed(HttpSessionEvent event) {
+        liveSessions.decrementAndGet();
+        remove(event.getSession().getId());
+    }
+
+    @ManagedAttribute
+    public long getLiveSessions() {
+        return liveSessions.get();
+    }
+
+    @ManagedAttribute
+    public long getRetainedUIHandlers() {
+        handlers.cleanUp();
+        return handlers.size();
+    }
+
+    @ManagedAttribute
+    public long getEvictedSessions() {
+        return handlers.stats().evictionCount();
+    }
+
+    /**
+     * the HTTP session may have been invalidated already, then its listener removes the entry
+     */
+    private void remove(VaadinSession session) {
+        try {
+            WrappedSession wrappedSession = session.getSession();
+            if (wrappedSession != null) remove(wrappedSession.getId());
+        } catch (IllegalStateException e) {
+            log.debug("Session is invalidated: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package agi.core.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Entities of the annotated {@link AgiEntity} class and the grid queries over them are kept
+ * in the in-process second-level cache of Hibernate, see {@link agi.core.dao.cache.AgiRegionFactory}.
+ * Meant for reference data which is read much more often than changed
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface AgiCacheable {
+
+    /**
+     * maximum count of the cached entities
+     */
+    long maxSize() default 10_000;
+
+    /**
+     * seconds a cached entity lives after it is loaded
+     */
+    long ttlSeconds() default 600;
+}
@@ -1,5 +1,9 @@
 package agi.core.annotations;
 
+import agi.core.dao.CountMode;
+import agi.core.dao.LoadMode;
+import agi.core.dao.PaginationMode;
+import agi.core.dao.SaveMode;
 import agi.core.form.MainMenuGenerator;
 import com.vaadin.icons.VaadinIcons;
 
@@ -24,4 +28,29 @@ public @interface AgiEntity {
     String nameForInputSearch();
 
     String menuPath() default "";
+
+    /**
+     * the way list forms fetch the pages of the grid
+     */
+    PaginationMode pagination() default PaginationMode.OFFSET;
+
+    /**
+     * the way list forms count the rows of the grid
+     */
+    CountMode count() default CountMode.EXACT;
+
+    /**
+     * the way list forms load the rows of the grid
+     */
+    LoadMode load() default LoadMode.ENTITY;
+
+    /**
+     * the way element forms write the entity
+     */
+    SaveMode save() default SaveMode.MERGE;
+
+    /**
+     * rows of the list grid can be selected and deleted several at once
+     */
+    boolean multiSelect() default false;
 }
@@ -8,4 +8,10 @@ import java.lang.annotation.Target;
 @Target({ElementType.FIELD, ElementType.METHOD})
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Filtered {
+
+    /**
+     * substring filters of a String field are resolved by the in-memory n-gram {@link agi.core.dao.TextIndex}
+     * instead of LIKE '%value%'
+     */
+    boolean textIndex() default false;
 }
@@ -0,0 +1,230 @@
+package agi.core.dao;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.vaadin.data.provider.Query;
+import com.vaadin.data.provider.QuerySortOrder;
+import com.vaadin.ui.UI;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Grid provider which never queries the database on the request thread.
+ * A page or count missing in {@link PageCache} or {@link RowCountService} is loaded on agiQueryExecutor,
+ * meanwhile the grid shows blank placeholder rows, the loaded result is pushed to the client by {@link UI#access}.
+ * Loaded results are also kept by the provider until the query or the data changes,
+ * so the grid gets them after the push even if the shared caches have already evicted them.
+ * Works synchronously when the UI has no push enabled, otherwise the result would wait for the next client request
+ */
+@Slf4j
+@SuppressWarnings("unchecked")
+public class AsyncGenericBackendDataProvider<T> extends GenericBackendDataProvider<T> {
+
+    private static final int LOADED_LIMIT = 64;
+
+    private final Executor queryExecutor;
+    private final Set<LoadKey> loading = ConcurrentHashMap.newKeySet();
+    /**
+     * pages and counts of the current query loaded in background
+     */
+    private final Cache<LoadKey, Object> loaded = CacheBuilder.newBuilder().maximumSize(LOADED_LIMIT).build();
+    /**
+     * keys of the placeholder rows sent to the client, dropped when the real rows are pushed
+     */
+    private final Map<Object, Object> placeholders = new IdentityHashMap<>();
+    private volatile QuerySignature currentSignature;
+    private volatile int lastSize;
+    /**
+     * generation of the filters of the form, a load requested under an older one is not pushed
+     */
+    private volatile LongSupplier filterGeneration = () -> 0;
+    private volatile Consumer<RuntimeException> errorHandler = e -> {
+    };
+
+    public AsyncGenericBackendDataProvider(Class<T> aClass, GenericDao genericDao, RowCountService rowCountService,
+                                           PageCache pageCache, boolean projection, Executor queryExecutor) {
+        super(aClass, genericDao, rowCountService, pageCache, projection);
+        this.queryExecutor = queryExecutor;
+    }
+
+    @Override
+    protected Stream fetchFromBackEnd(Query query) {
+        UI ui = UI.getCurrent();
+        if (!isPushEnabled(ui)) return super.fetchFromBackEnd(query);
+        Set<CriteriaFilter> filterSet = getFilterSet(query);
+        List<QuerySortOrder> sortOrders = query.getSortOrders();
+        LoadKey key = new LoadKey(select(QuerySignature.of(filterSet, sortOrders)), query.getOffset(), query.getLimit());
+        List<T> page = (List<T>) loaded.getIfPresent(key);
+        if (page == null) page = pageCache.getPageIfPresent(genericDao, filterSet, sortOrders,
+                query.getOffset(), query.getLimit(), projection);
+        if (page != null) {
+            if (rowCountService.onPageLoaded(genericDao, filterSet, query.getOffset(), query.getLimit(), page.size())) {
+                refreshLater();
+            }
+            return page.stream();
+        }
+        boolean queued = load(ui, key, () -> {
+            List<T> loadedPage = pageCache.getPage(genericDao, filterSet, sortOrders,
+                    query.getOffset(), query.getLimit(), projection);
+            rowCountService.onPageLoaded(genericDao, filterSet, query.getOffset(), query.getLimit(), loadedPage.size());
+            return loadedPage;
+        });
+        if (!queued) return Stream.empty();
+        return getPlaceholders(query.getOffset(), Math.min(query.getLimit(), lastSize - query.getOffset())).stream();
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query query) {
+        UI ui = UI.getCurrent();
+        if (!isPushEnabled(ui)) return super.sizeInBackEnd(query);
+        Set<CriteriaFilter> filterSet = getFilterSet(query);
+        LoadKey key = new LoadKey(select(QuerySignature.of(filterSet, query.getSortOrders())), -1, -1);
+        Long count = rowCountService.getCountIfPresent(aClass, filterSet);
+        if (count == null) count = (Long) loaded.getIfPresent(key);
+        if (count != null) return lastSize = Math.toIntExact(count);
+        load(ui, key, () -> rowCountService.getCount(genericDao, filterSet));
+        return lastSize;
+    }
+
+    /**
+     * the data has been changed, the results loaded before are dropped
+     */
+    @Override
+    public void refreshAll() {
+        loaded.invalidateAll();
+        super.refreshAll();
+    }
+
+    public void setFilterGeneration(LongSupplier filterGeneration) {
+        this.filterGeneration = filterGeneration;
+    }
+
+    /**
+     * @param errorHandler gets the failures of the background loads on the UI thread
+     */
+    public void setErrorHandler(Consumer<RuntimeException> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * placeholders are distinct by position, blank entities are equal to each other
+     */
+    @Override
+    public Object getId(Object item) {
+        synchronized (placeholders) {
+            Object placeholderId = placeholders.get(item);
+            if (placeholderId != null) return placeholderId;
+        }
+        return super.getId(item);
+    }
+
+    /**
+     * results of another query are dropped
+     */
+    private QuerySignature select(QuerySignature signature) {
+        if (!signature.equals(currentSignature)) {
+            loaded.invalidateAll();
+            currentSignature = signature;
+        }
+        return signature;
+    }
+
+    /**
+     * the same page is loaded once however many times the grid asks for it,
+     * the result of a load whose filters or sorting have been changed meanwhile is cached but not pushed,
+     * a failure clears the placeholders and is passed to the error handler, as well as a load rejected by the executor
+     *
+     * @return the load is queued or already running, false if it has been rejected
+     */
+    private boolean load(UI ui, LoadKey key, Supplier<Object> loader) {
+        if (!loading.add(key)) return true;
+        long generation = filterGeneration.getAsLong();
+        try {
+            queryExecutor.execute(() -> run(ui, key, generation, loader));
+            return true;
+        } catch (RejectedExecutionException e) {
+            loading.remove(key);
+            log.error("Background load of {} is rejected", aClass.getCanonicalName(), e);
+            clearPlaceholders();
+            errorHandler.accept(e);
+            return false;
+        }
+    }
+
+    private void run(UI ui, LoadKey key, long generation, Supplier<Object> loader) {
+        Object result;
+        try {
+            result = loader.get();
+        } catch (RuntimeException e) {
+            log.error("Background load of {} failed", aClass.getCanonicalName(), e);
+            ui.access(() -> {
+                clearPlaceholders();
+                errorHandler.accept(e);
+            });
+            return;
+        } finally {
+            loading.remove(key);
+        }
+        if (!key.signature.equals(currentSignature) || generation != filterGeneration.getAsLong()) return;
+        loaded.put(key, result);
+        ui.access(() -> {
+            clearPlaceholders();
+            super.refreshAll();
+        });
+    }
+
+    private void clearPlaceholders() {
+        synchronized (placeholders) {
+            placeholders.clear();
+        }
+    }
+
+    private List<T> getPlaceholders(int offset, int count) {
+        List<T> rows = new ArrayList<>();
+        synchronized (placeholders) {
+            for (int i = 0; i < count; i++) {
+                T row = (T) genericDao.newInstance();
+                placeholders.put(row, new PlaceholderId(offset + i));
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private Set<CriteriaFilter> getFilterSet(Query query) {
+        return (Set<CriteriaFilter>) query.getFilter().orElse(ImmutableSet.of());
+    }
+
+    private boolean isPushEnabled(UI ui) {
+        return ui != null && ui.getPushConfiguration().getPushMode().isEnabled();
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class LoadKey {
+        private final QuerySignature signature;
+        private final int offset;
+        private final int limit;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class PlaceholderId {
+        private final int index;
+    }
+}
@@ -4,5 +4,9 @@ public enum CompareType {
     EQUALS,
     NOT_EQUALS,
     LIKE,
-    STARTS_WITH
+    STARTS_WITH,
+    /**
+     * value is a collection, e.g. ids resolved by {@link TextIndex}
+     */
+    IN
 }
@@ -0,0 +1,15 @@
+package agi.core.dao;
+
+public enum CountMode {
+    /**
+     * SELECT COUNT(*) with the applied filters, cached for a short time
+     */
+    EXACT,
+    /**
+     * table statistics of the database for unfiltered grids,
+     * a count capped by agi.dao.count.cap rows for filtered ones.
+     * Both are corrected while scrolling: the count grows when the last rows are reached
+     * and shrinks to the real end when a page comes back short
+     */
+    ESTIMATED
+}
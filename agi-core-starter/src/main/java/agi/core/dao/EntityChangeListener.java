@@ -0,0 +1,10 @@
+package agi.core.dao;
+
+/**
+ * Spring beans implementing the interface are notified by {@link GenericDao}
+ * when the transaction which saved or deleted entities is committed
+ */
+public interface EntityChangeListener {
+
+    void onEntitiesChanged(Class<?> entityClass);
+}
@@ -0,0 +1,52 @@
+package agi.core.dao;
+
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.FieldMetadata;
+import com.google.common.collect.ImmutableList;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+
+/**
+ * Associations loaded together with the rows of a list grid.
+ * To-one links shown as grid columns are join-fetched by the page statement,
+ * collections are never joined. Eager collections would still be initialized per row,
+ * so {@link EntityMetadata} refuses them for the grids reading entities
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public class FetchPlan {
+
+    private final ImmutableList<String> joinFetches;
+
+    private FetchPlan(ImmutableList<String> joinFetches) {
+        this.joinFetches = joinFetches;
+    }
+
+    /**
+     * @param metadata   columns of the list form
+     * @param entityType JPA view of the same class, tells the associations from the embedded values
+     */
+    public static FetchPlan forListForm(EntityMetadata metadata, EntityType<?> entityType) {
+        ImmutableList.Builder<String> joinFetches = ImmutableList.builder();
+        for (FieldMetadata field : metadata.getFields()) {
+            if (field.isCollection() || !field.isLinkedObject()) continue;
+            Attribute.PersistentAttributeType attributeType = entityType.getAttribute(field.getName()).getPersistentAttributeType();
+            if (attributeType == Attribute.PersistentAttributeType.MANY_TO_ONE
+                    || attributeType == Attribute.PersistentAttributeType.ONE_TO_ONE) {
+                joinFetches.add(field.getName());
+            }
+        }
+        return new FetchPlan(joinFetches.build());
+    }
+
+    public String toJpql(String alias) {
+        StringBuilder jpql = new StringBuilder();
+        joinFetches.forEach(name -> jpql.append(" left join fetch ").append(alias).append('.').append(name));
+        return jpql.toString();
+    }
+}
@@ -3,6 +3,7 @@ package agi.core.dao;
 import com.google.common.collect.ImmutableSet;
 import com.vaadin.data.provider.AbstractBackEndDataProvider;
 import com.vaadin.data.provider.Query;
+import com.vaadin.ui.UI;
 
 import java.util.List;
 import java.util.Set;
@@ -13,10 +14,20 @@ public class GenericBackendDataProvider<T> extends AbstractBackEndDataProvider {
 
     Class<T> aClass;
     GenericDao genericDao;
-
-    public GenericBackendDataProvider(Class<T> aClass, GenericDao genericDao) {
+    RowCountService rowCountService;
+    PageCache pageCache;
+    /**
+     * fetch grid rows holding only the grid columns instead of entities
+     */
+    boolean projection;
+
+    public GenericBackendDataProvider(Class<T> aClass, GenericDao genericDao,
+                                      RowCountService rowCountService, PageCache pageCache, boolean projection) {
         this.aClass = aClass;
         this.genericDao = genericDao;
+        this.rowCountService = rowCountService;
+        this.pageCache = pageCache;
+        this.projection = projection;
     }
 
     @Override
@@ -25,16 +36,26 @@ public class GenericBackendDataProvider<T> extends AbstractBackEndDataProvider {
     }
 
     protected List<T> fetchFromBackEndList(Query query) {
-        return genericDao.getEntitiesByCriteriaFilterSet(
-                (Set<CriteriaFilter>) query.getFilter().orElse(ImmutableSet.of()),
-                query.getSortOrders(),
-                query.getOffset(),
-                query.getLimit());
+        Set<CriteriaFilter> filterSet = (Set<CriteriaFilter>) query.getFilter().orElse(ImmutableSet.of());
+        List<T> page = pageCache.getPage(genericDao, filterSet, query.getSortOrders(),
+                query.getOffset(), query.getLimit(), projection);
+        if (rowCountService.onPageLoaded(genericDao, filterSet, query.getOffset(), query.getLimit(), page.size())) {
+            refreshLater();
+        }
+        return page;
+    }
+
+    /**
+     * the grid asks for the size again once the current request is done
+     */
+    protected void refreshLater() {
+        UI ui = UI.getCurrent();
+        if (ui != null) ui.access(this::refreshAll);
     }
 
     @Override
     protected int sizeInBackEnd(Query query) {
-        return Math.toIntExact(genericDao.getCountByCriteriaFilterSet(
+        return Math.toIntExact(rowCountService.getCount(genericDao,
                 (Set<CriteriaFilter>) query.getFilter().orElse(ImmutableSet.of())));
     }
 }
@@ -0,0 +1,48 @@
+package agi.core.dao;
+
+import agi.core.metadata.EntityMetadataRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+@Component
+public class GenericBackendDataProviderFactory {
+
+    @Autowired
+    GenericDaoFactory genericDaoFactory;
+    @Autowired
+    RowCountService rowCountService;
+    @Autowired
+    PageCache pageCache;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    TaskExecutor agiQueryExecutor;
+    @Value("${agi.grid.async:false}")
+    private boolean async;
+
+    /**
+     * provider of entities
+     */
+    @SuppressWarnings("unchecked")
+    public <T> GenericBackendDataProvider<T> getDataProvider(Class<T> aClass) {
+        return new GenericBackendDataProvider<>(aClass, genericDaoFactory.getGenericDaoForClass(aClass),
+                rowCountService, pageCache, false);
+    }
+
+    /**
+     * provider of the list grid rows, loads only the grid columns for entities in the projection mode.
+     * With agi.grid.async the rows are loaded in background and pushed to the client,
+     * see {@link AsyncGenericBackendDataProvider}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> GenericBackendDataProvider<T> getGridDataProvider(Class<T> aClass) {
+        GenericDao genericDao = genericDaoFactory.getGenericDaoForClass(aClass);
+        boolean projection = metadataRegistry.getMetadata(aClass).isProjection();
+        if (async) return new AsyncGenericBackendDataProvider<>(aClass, genericDao,
+                rowCountService, pageCache, projection, agiQueryExecutor);
+        return new GenericBackendDataProvider<>(aClass, genericDao, rowCountService, pageCache, projection);
+    }
+
+}
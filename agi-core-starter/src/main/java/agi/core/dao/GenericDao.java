@@ -1,70 +1,344 @@
 package agi.core.dao;
 
-import agi.core.annotations.Synonym;
 import agi.core.form.IFormHandler;
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import agi.core.picture.PictureStore;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.vaadin.data.provider.QuerySortOrder;
 import com.vaadin.shared.data.sort.SortDirection;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.engine.spi.CascadeStyle;
+import org.hibernate.engine.spi.CascadingAction;
+import org.hibernate.engine.spi.CascadingActions;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.Type;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Order;
-import javax.persistence.criteria.Path;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Root;
-import java.lang.reflect.Field;
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Component
 @Scope("prototype")
 public class GenericDao<T> {
 
+    private static final int KEYSET_CURSORS_LIMIT = 10_000;
+    private static final int SCROLL_CLEAR_INTERVAL = 1000;
+    @Value("${agi.dao.delete-chunk-size:500}")
+    private int deleteChunkSize;
     public static volatile int q, w;
     @Autowired
     protected EntityManager entityManager;
+    @Getter
     protected Class<T> entityClass;
     @Autowired
     IFormHandler formHandler;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    List<EntityChangeListener> entityChangeListeners;
+    @Autowired
+    QueryTemplateCache queryTemplateCache;
+    @Autowired
+    TextIndex textIndex;
+    @Autowired
+    LinkedObjectLookup linkedObjectLookup;
+    @Autowired
+    PictureStore pictureStore;
     private Pattern numericPattern = Pattern.compile("^[0-9]+?$");
+    /**
+     * sort key of the last row before the offset, shared by all sessions reading the same query
+     */
+    private final Cache<KeysetPosition, Object[]> keysetCursors = CacheBuilder.newBuilder()
+            .maximumSize(KEYSET_CURSORS_LIMIT)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
 
     public GenericDao(Class<T> entityClass) {
         this.entityClass = entityClass;
     }
 
-    @SuppressWarnings("unchecked")
     @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
     public List<T> getEntitiesByCriteriaFilterSet(Set<CriteriaFilter> filterSet, List<QuerySortOrder> sortOrders, int offset, int limit) {
-        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
-        CriteriaQuery query = builder.createQuery();
-        Root<T> root = query.from(entityClass);
-        query.select(root);
-        buildPredicate(builder, root, query, filterSet);
-        buildSortOrders(builder, root, query, sortOrders);
-        TypedQuery typedQuery = entityManager.createQuery(query);
-        buildLimit(typedQuery, offset, limit);
-        return (List<T>) typedQuery.getResultList();
+        return (List<T>) getPage(filterSet, sortOrders, offset, limit, false);
+    }
+
+    /**
+     * Same page as {@link #getEntitiesByCriteriaFilterSet} but only the grid columns are read from the database.
+     * Rows are detached instances which are not tracked by the persistence context
+     */
+    @Transactional(readOnly = true)
+    public List<T> getRowsByCriteriaFilterSet(Set<CriteriaFilter> filterSet, List<QuerySortOrder> sortOrders, int offset, int limit) {
+        return getTuplesByCriteriaFilterSet(filterSet, sortOrders, offset, limit).stream()
+                .map(this::toRow)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Values of the grid columns of the page rows, see {@link #toRow}.
+     * Unless {@link ProjectionColumns#isHoldingEntities()}, tuples hold no entities and can be shared by the sessions
+     */
+    @Transactional(readOnly = true)
+    public List<Object[]> getTuplesByCriteriaFilterSet(Set<CriteriaFilter> filterSet, List<QuerySortOrder> sortOrders, int offset, int limit) {
+        return getPage(filterSet, sortOrders, offset, limit, true).stream()
+                .map(GenericDao::toTuple)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return entities or projection results as returned by the query
+     */
+    protected List<?> getPage(Set<CriteriaFilter> filterSet, List<QuerySortOrder> sortOrders, int offset, int limit, boolean projection) {
+        List<QuerySortOrder> keysetOrders = getKeysetSortOrders(sortOrders);
+        if (keysetOrders != null) return getPageByKeyset(filterSet, keysetOrders, offset, limit, projection);
+        List<QuerySignature.FilterEntry> filters = bindFilters(filterSet);
+        if (filters == null) return new ArrayList<>();
+        QueryTemplate template = queryTemplateCache.getTemplate(QueryShape.of(entityClass, filters, sortOrders, false, projection));
+        Query query = cacheable(entityManager.createQuery(template.getSelectJpql()));
+        template.bind(query, filters, null);
+        buildLimit(query, offset, limit);
+        return query.getResultList();
+    }
+
+    /**
+     * Seeks the page after the remembered key of the previous page.
+     * Falls back to the offset when there is no remembered key (first page or random jump)
+     */
+    @SuppressWarnings("unchecked")
+    protected List<?> getPageByKeyset(Set<CriteriaFilter> filterSet, List<QuerySortOrder> keysetOrders, int offset, int limit, boolean projection) {
+        QuerySignature signature = QuerySignature.of(filterSet, keysetOrders);
+        Object[] lastKey = offset == 0 ? null : keysetCursors.getIfPresent(new KeysetPosition(signature, offset));
+
+        List<QuerySignature.FilterEntry> filters = bindFilters(filterSet);
+        if (filters == null) return new ArrayList<>();
+        QueryTemplate template = queryTemplateCache.getTemplate(
+                QueryShape.of(entityClass, filters, keysetOrders, lastKey != null, projection));
+        Query query = cacheable(entityManager.createQuery(template.getSelectJpql()));
+        template.bind(query, filters, lastKey);
+        buildLimit(query, lastKey == null ? offset : 0, limit);
+        List<?> result = query.getResultList();
+        if (!result.isEmpty()) {
+            Object last = result.get(result.size() - 1);
+            rememberKeysetPosition(signature, keysetOrders, offset + result.size(),
+                    projection ? toRow(toTuple(last)) : (T) last);
+        }
+        return result;
+    }
+
+    /**
+     * results of the queries over {@link agi.core.annotations.AgiCacheable} entities are kept in the query cache
+     */
+    protected <Q extends Query> Q cacheable(Q query) {
+        if (metadataRegistry.getMetadata(entityClass).isCacheable()) query.setHint(QueryHints.CACHEABLE, true);
+        return query;
+    }
+
+    private static Object[] toTuple(Object result) {
+        return result instanceof Object[] ? (Object[]) result : new Object[]{result};
+    }
+
+    /**
+     * @param tuple values of the grid columns, e.g. read by {@link #scrollRows}, see {@link ProjectionColumns}
+     * @return detached instance holding only the grid columns
+     */
+    public T toRow(Object[] tuple) {
+        T row = newInstance();
+        queryTemplateCache.getProjectionColumns(entityClass).fill(row, tuple);
+        return row;
+    }
+
+    protected T newInstance() {
+        try {
+            Constructor<T> constructor = entityClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No-arg constructor is necessary: " + entityClass.getCanonicalName(), e);
+        }
+    }
+
+    /**
+     * Reads the grid columns of every row matching the filters through a forward-only cursor.
+     * Tuples are passed to the consumer as they are read, the persistence context holding the linked objects
+     * is cleared periodically, so the memory doesn't depend on the count of the rows
+     *
+     * @param fetchSize JDBC fetch size, Integer.MIN_VALUE makes MySQL stream the rows one by one
+     */
+    @Transactional(readOnly = true)
+    public void scrollRows(Set<CriteriaFilter> filterSet, List<QuerySortOrder> sortOrders, int fetchSize,
+                           Consumer<Object[]> rowConsumer) {
+        List<QuerySignature.FilterEntry> filters = bindFilters(filterSet);
+        if (filters == null) return;
+        QueryTemplate template = queryTemplateCache.getTemplate(QueryShape.of(entityClass, filters, sortOrders, false, true));
+        Query query = entityManager.createQuery(template.getSelectJpql());
+        template.bind(query, filters, null);
+        scroll(query, fetchSize, rowConsumer);
+    }
+
+    /**
+     * Id and search field of a page of the matching rows ordered by the search field and id,
+     * see {@link LinkedObjectLookup}
+     */
+    @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
+    public List<Object[]> getLookupTuples(Set<CriteriaFilter> filterSet, int offset, int limit) {
+        List<QuerySignature.FilterEntry> filters = bindFilters(filterSet);
+        if (filters == null) return new ArrayList<>();
+        QueryTemplate template = queryTemplateCache.getTemplate(QueryShape.of(entityClass, filters, getLookupSortOrders(), false, false));
+        Query query = cacheable(entityManager.createQuery(template.getLookupJpql()));
+        template.bind(query, filters, null);
+        buildLimit(query, offset, limit);
+        return query.getResultList();
+    }
+
+    /**
+     * Id and search field of every row through a forward-only cursor, in the order of {@link #getLookupTuples}.
+     * Read from the primary, the writes committed meanwhile are replayed on the result and a lagging replica
+     * would miss the earlier ones
+     */
+    @Transactional
+    public void scrollLookupTuples(int fetchSize, Consumer<Object[]> tupleConsumer) {
+        QueryTemplate template = queryTemplateCache.getTemplate(
+                QueryShape.of(entityClass, ImmutableList.of(), getLookupSortOrders(), false, false));
+        scroll(entityManager.createQuery(template.getLookupJpql()), fetchSize, tupleConsumer);
+    }
+
+    private List<QuerySortOrder> getLookupSortOrders() {
+        EntityMetadata metadata = metadataRegistry.getMetadata(entityClass);
+        return ImmutableList.of(new QuerySortOrder(metadata.getSearchField().getName(), SortDirection.ASCENDING),
+                new QuerySortOrder(metadata.getIdField().getName(), SortDirection.ASCENDING));
+    }
+
+    private void scroll(Query query, int fetchSize, Consumer<Object[]> rowConsumer) {
+        try (ScrollableResults results = query.unwrap(org.hibernate.query.Query.class)
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+            int count = 0;
+            while (results.next()) {
+                rowConsumer.accept(results.get());
+                if (++count % SCROLL_CLEAR_INTERVAL == 0) entityManager.clear();
+            }
+        }
+    }
+
+    /**
+     * @return sort orders completed by the id as a tie-breaker,
+     * or null when the entity doesn't use keyset pagination or some sort column can't be compared
+     */
+    protected List<QuerySortOrder> getKeysetSortOrders(List<QuerySortOrder> sortOrders) {
+        EntityMetadata metadata = metadataRegistry.getMetadata(entityClass);
+        if (metadata.getPaginationMode() != PaginationMode.KEYSET) return null;
+        FieldMetadata idField = metadata.getIdField();
+        if (idField == null || !idField.isComparable()) return null;
+        List<QuerySortOrder> keysetOrders = new ArrayList<>(sortOrders.size() + 1);
+        boolean idPresent = false;
+        for (QuerySortOrder sortOrder : sortOrders) {
+            FieldMetadata field = metadata.getField(sortOrder.getSorted());
+            if (field == null || !field.isComparable()) return null;
+            idPresent |= field.isId();
+            keysetOrders.add(sortOrder);
+        }
+        if (!idPresent) keysetOrders.add(new QuerySortOrder(idField.getName(), SortDirection.ASCENDING));
+        return keysetOrders;
+    }
+
+    private void rememberKeysetPosition(QuerySignature signature, List<QuerySortOrder> keysetOrders, int offset, T lastRow) {
+        EntityMetadata metadata = metadataRegistry.getMetadata(entityClass);
+        Object[] key = new Object[keysetOrders.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = metadata.getField(keysetOrders.get(i).getSorted()).getValue(lastRow);
+            if (key[i] == null) return;
+        }
+        keysetCursors.put(new KeysetPosition(signature, offset), key);
     }
 
     @Transactional(readOnly = true)
     public Long getCountByCriteriaFilterSet(Set<CriteriaFilter> filterSet) {
-        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
-        CriteriaQuery query = builder.createQuery();
-        Root<T> root = query.from(entityClass);
-        query.select(builder.count(root));
-        buildPredicate(builder, root, query, filterSet);
-        TypedQuery typedQuery = entityManager.createQuery(query);
-        return (Long) typedQuery.getSingleResult();
+        List<QuerySignature.FilterEntry> filters = bindFilters(filterSet);
+        if (filters == null) return 0L;
+        QueryTemplate template = queryTemplateCache.getTemplate(QueryShape.of(entityClass, filters));
+        TypedQuery<Long> typedQuery = cacheable(entityManager.createQuery(template.getCountJpql(), Long.class));
+        template.bind(typedQuery, filters, null);
+        return typedQuery.getSingleResult();
+    }
+
+    /**
+     * Probes the row at the offset cap, the database skips the rows before it and returns one id at most.
+     * Only when there is no such row the matching rows are counted, they are fewer than cap then
+     *
+     * @return count of the matching rows but not more than cap
+     */
+    @Transactional(readOnly = true)
+    public long getCappedCountByCriteriaFilterSet(Set<CriteriaFilter> filterSet, long cap) {
+        List<QuerySignature.FilterEntry> filters = bindFilters(filterSet);
+        if (filters == null) return 0;
+        QueryTemplate template = queryTemplateCache.getTemplate(QueryShape.of(entityClass, filters));
+        Query query = entityManager.createQuery(template.getIdJpql());
+        template.bind(query, filters, null);
+        buildLimit(query, Math.toIntExact(cap), 1);
+        if (!query.getResultList().isEmpty()) return cap;
+        TypedQuery<Long> countQuery = entityManager.createQuery(template.getCountJpql(), Long.class);
+        template.bind(countQuery, filters, null);
+        return Math.min(countQuery.getSingleResult(), cap);
+    }
+
+    /**
+     * @return row count from the table statistics of MySQL, null if the statistics are not available
+     */
+    @Transactional(readOnly = true)
+    public Long getEstimatedCount() {
+        try {
+            Object tableRows = entityManager.createNativeQuery("SELECT TABLE_ROWS FROM information_schema.TABLES " +
+                    "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?1")
+                    .setParameter(1, getTableName())
+                    .getSingleResult();
+            return tableRows == null ? null : ((Number) tableRows).longValue();
+        } catch (PersistenceException e) {
+            log.warn("Table statistics are not available for {}: {}", entityClass.getCanonicalName(), e.getMessage());
+            return null;
+        }
+    }
+
+    protected String getTableName() {
+        String tableName = ((AbstractEntityPersister) getEntityPersister()).getTableName();
+        return tableName.substring(tableName.lastIndexOf('.') + 1).replace("`", "");
     }
 
     @Transactional
@@ -72,67 +346,185 @@ public class GenericDao<T> {
         T mergedEntity = entityManager.merge(entity);
         entityManager.flush();
         entityManager.refresh(mergedEntity);
+        afterCommit(() -> {
+            textIndex.index(entityClass, mergedEntity);
+            linkedObjectLookup.index(entityClass, mergedEntity);
+            onEntitiesChanged();
+        });
         return mergedEntity;
     }
 
-    protected void buildLimit(TypedQuery typedQuery, int offset, int limit) {
-        typedQuery.setFirstResult(offset);
-        typedQuery.setMaxResults(limit);
+    /**
+     * Writes the entity edited in an element form according to {@link EntityMetadata#getSaveMode()}.
+     * In the lean mode a new instance is persisted, its generated id is taken from the insert,
+     * an existing one gets an UPDATE of the changed fields, both are followed by a read of the database generated fields only
+     *
+     * @param changedFields names of the fields changed by the form
+     */
+    @Transactional
+    public T save(T entity, boolean isNewInstance, Set<String> changedFields) {
+        EntityMetadata metadata = metadataRegistry.getMetadata(entityClass);
+        if (metadata.getSaveMode() != SaveMode.LEAN) return save(entity);
+        EntityPersister persister = getEntityPersister();
+        if (isNewInstance) {
+            if (hasCascade(persister, CascadingActions.PERSIST)) return save(entity);
+            entityManager.persist(entity);
+            entityManager.flush();
+            readGeneratedFields(entity, metadata);
+        } else {
+            List<String> updatedFields = changedFields.stream()
+                    .filter(name -> persister.getEntityMetamodel().getPropertyIndexOrNull(name) != null)
+                    .collect(Collectors.toList());
+            if (updatedFields.isEmpty()) return entity;
+            if (!isDynamicUpdateSupported(persister, updatedFields)) return save(entity);
+            updateFields(entity, metadata, updatedFields);
+            readGeneratedFields(entity, metadata);
+        }
+        afterCommit(() -> {
+            textIndex.index(entityClass, entity);
+            linkedObjectLookup.index(entityClass, entity);
+            onEntitiesChanged();
+        });
+        return entity;
+    }
+
+    /**
+     * Saves the entity like {@link #save(Object, boolean, Set)} and streams the uploaded pictures
+     * into their columns in the same transaction
+     *
+     * @param pictures files of the uploaded pictures by their fields
+     */
+    @Transactional
+    public T save(T entity, boolean isNewInstance, Set<String> changedFields, Map<FieldMetadata, File> pictures) {
+        T savedEntity = save(entity, isNewInstance, changedFields);
+        if (pictures.isEmpty()) return savedEntity;
+        entityManager.flush();
+        Object id = metadataRegistry.getMetadata(entityClass).getIdField().getValue(savedEntity);
+        pictures.forEach((field, file) -> pictureStore.write(entityClass, field, id, file));
+        afterCommit(this::onEntitiesChanged);
+        return savedEntity;
+    }
+
+    private void updateFields(T entity, EntityMetadata metadata, List<String> fieldNames) {
+        StringBuilder jpql = new StringBuilder("update ")
+                .append(entityManager.getMetamodel().entity(entityClass).getName()).append(" e set ");
+        for (int i = 0; i < fieldNames.size(); i++) {
+            if (i > 0) jpql.append(", ");
+            jpql.append("e.").append(fieldNames.get(i)).append(" = :v").append(i);
+        }
+        FieldMetadata idField = metadata.getIdField();
+        jpql.append(" where e.").append(idField.getName()).append(" = :id");
+        Query query = entityManager.createQuery(jpql.toString());
+        for (int i = 0; i < fieldNames.size(); i++) {
+            query.setParameter("v" + i, metadata.getField(fieldNames.get(i)).getValue(entity));
+        }
+        query.setParameter("id", idField.getValue(entity));
+        query.executeUpdate();
+    }
+
+    private void readGeneratedFields(T entity, EntityMetadata metadata) {
+        List<FieldMetadata> generatedFields = metadata.getFields().stream()
+                .filter(FieldMetadata::isGenerated)
+                .collect(Collectors.toList());
+        if (generatedFields.isEmpty()) return;
+        String jpql = generatedFields.stream().map(field -> "e." + field.getName())
+                .collect(Collectors.joining(", ", "select ", " from "))
+                + entityManager.getMetamodel().entity(entityClass).getName()
+                + " e where e." + metadata.getIdField().getName() + " = :id";
+        Object result = entityManager.createQuery(jpql)
+                .setParameter("id", metadata.getIdField().getValue(entity))
+                .getSingleResult();
+        Object[] values = result instanceof Object[] ? (Object[]) result : new Object[]{result};
+        for (int i = 0; i < values.length; i++) {
+            generatedFields.get(i).setValue(entity, values[i]);
+        }
+    }
+
+    /**
+     * UPDATE statements skip optimistic locking and can't write collections
+     */
+    private boolean isDynamicUpdateSupported(EntityPersister persister, List<String> fieldNames) {
+        if (persister.isVersioned() || metadataRegistry.getMetadata(entityClass).getIdField() == null) return false;
+        for (String name : fieldNames) {
+            if (persister.getPropertyType(name).isCollectionType()) return false;
+        }
+        return true;
     }
 
-    protected void buildSortOrders(CriteriaBuilder builder, Root<T> root, CriteriaQuery query, List<QuerySortOrder> sortOrders) {
-        List<Order> orderList = new LinkedList<>();
-        for (QuerySortOrder vaadinOrder : sortOrders) {
-            Path<Object> objectPath = root.get(vaadinOrder.getSorted());
-            Order order;
-            if (vaadinOrder.getDirection() == SortDirection.ASCENDING) order = builder.asc(objectPath);
-            else order = builder.desc(objectPath);
-            orderList.add(order);
+    private boolean hasCascade(EntityPersister persister, CascadingAction action) {
+        for (CascadeStyle cascadeStyle : persister.getPropertyCascadeStyles()) {
+            if (cascadeStyle.doCascade(action)) return true;
         }
-        query.orderBy(orderList);
+        return false;
     }
 
-    protected void buildPredicate(CriteriaBuilder builder, Root<T> root, CriteriaQuery<T> query, Set<CriteriaFilter> filterSet) {
-        if (filterSet == null) return;
-        List<Predicate> predicates = new ArrayList<>();
+    protected void buildLimit(Query query, int offset, int limit) {
+        query.setFirstResult(offset);
+        query.setMaxResults(limit);
+    }
 
-        for (CriteriaFilter filter : filterSet) {
+    /**
+     * @return non-empty filter values in the order of {@link QuerySignature},
+     * text typed into the filters of non-string fields is converted to the type of the field,
+     * substring filters of text indexed fields are replaced by the ids found in {@link TextIndex}.
+     * Null if the text index knows that no row matches
+     */
+    protected List<QuerySignature.FilterEntry> bindFilters(Set<CriteriaFilter> filterSet) {
+        List<QuerySignature.FilterEntry> filters = new ArrayList<>();
+        EntityMetadata metadata = metadataRegistry.getMetadata(entityClass);
+        for (QuerySignature.FilterEntry filter : QuerySignature.of(filterSet).getFilters()) {
+            FieldMetadata field = metadata.getField(filter.getFieldName());
             try {
-                if (filter.getFieldValue() == null ||
-                        (filter.getFieldValue() instanceof String && ((String) filter.getFieldValue()).isEmpty()))
-                    continue;
-
-                if (filter.getCompareType() == CompareType.EQUALS) {
-                    predicates.add(builder.equal(root.get(filter.getFieldName()), filter.getFieldValue()));
-                } else if (filter.getCompareType() == CompareType.NOT_EQUALS) {
-                    predicates.add((builder.notEqual(root.get(filter.getFieldName()), filter.getFieldValue())));
-                } else if (filter.getCompareType() == CompareType.LIKE) {
-                    if (filter.getFieldValue().getClass().equals(String.class)) {
-                        predicates.add((builder.like(root.get(filter.getFieldName()), "%" + filter.getFieldValue() + "%")));
-                    } else {
-                        predicates.add((builder.like(root.get(filter.getFieldName()), filter.getFieldValue().toString())));
-                    }
-                } else if (filter.getCompareType() == CompareType.STARTS_WITH) {
-                    predicates.add((builder.like(root.get(filter.getFieldName()), filter.getFieldValue() + "%")));
+                Object value = filter.getFieldValue();
+                if (field != null && value instanceof String
+                        && (filter.getCompareType() == CompareType.EQUALS || filter.getCompareType() == CompareType.NOT_EQUALS)) {
+                    value = convertFilterValue((String) value, field.getType());
                 }
-            } catch (NumberFormatException nfe) {
-                try {
-                    String caption;
-                    Field field = entityClass.getDeclaredField(filter.getFieldName());
-                    if (field.isAnnotationPresent(Synonym.class)) {
-                        caption = field.getAnnotation(Synonym.class).value();
-                    } else {
-                        caption = filter.getFieldName();
+                if (field != null && field.isTextIndexed() && filter.getCompareType() == CompareType.LIKE
+                        && metadata.getIdField() != null) {
+                    Set<Object> ids = textIndex.find(entityClass, field.getName(), (String) value);
+                    if (ids != null && ids.isEmpty()) return null;
+                    if (ids != null) {
+                        filters.add(new QuerySignature.FilterEntry(metadata.getIdField().getName(), CompareType.IN, ids));
+                        continue;
                     }
-                    formHandler.handleFilterException(caption, nfe);
-                } catch (NoSuchFieldException e) {
-                    log.error(e.getMessage(), e);
+                }
+                filters.add(new QuerySignature.FilterEntry(filter.getFieldName(), filter.getCompareType(), value));
+            } catch (IllegalArgumentException iae) {
+                if (field != null) {
+                    formHandler.handleFilterException(field.getCaption(), iae);
+                } else {
+                    log.error("Field {} not found in class {}", filter.getFieldName(), entityClass.getCanonicalName(), iae);
                 }
                 break;
             }
         }
+        return filters;
+    }
 
-        query.where(builder.and(predicates.toArray(new Predicate[predicates.size()])));
+    /**
+     * @throws IllegalArgumentException the text is not a value of the type, NumberFormatException for numbers
+     */
+    protected Object convertFilterValue(String value, Class<?> type) {
+        if (type == Long.class || type == long.class) return Long.valueOf(value);
+        if (type == Integer.class || type == int.class) return Integer.valueOf(value);
+        if (type == Short.class || type == short.class) return Short.valueOf(value);
+        if (type == Double.class || type == double.class) return Double.valueOf(value);
+        if (type == Float.class || type == float.class) return Float.valueOf(value);
+        if (type == BigDecimal.class) return new BigDecimal(value);
+        if (type == Boolean.class || type == boolean.class) return Boolean.valueOf(value);
+        if (type.isEnum()) {
+            for (Object constant : type.getEnumConstants()) {
+                if (((Enum<?>) constant).name().equalsIgnoreCase(value.trim())) return constant;
+            }
+            throw new IllegalArgumentException("No constant " + value + " in " + type.getCanonicalName());
+        }
+        return value;
+    }
+
+    @Transactional(readOnly = true)
+    public T findById(Object id) {
+        return entityManager.find(entityClass, id);
     }
 
     @Transactional(readOnly = true)
@@ -140,8 +532,139 @@ public class GenericDao<T> {
         entityManager.refresh(entityManager.merge(entity));
     }
 
+    /**
+     * the managed entity is found by id, the argument may be a stale or a partial grid row
+     */
     @Transactional
     public void delete(T entity) {
-        entityManager.remove(entityManager.merge(entity));
+        FieldMetadata idField = metadataRegistry.getMetadata(entityClass).getIdField();
+        T managedEntity = idField == null ? entityManager.merge(entity) : entityManager.find(entityClass, idField.getValue(entity));
+        if (managedEntity == null) return;
+        entityManager.remove(managedEntity);
+        afterCommit(() -> {
+            if (idField != null) {
+                Set<Object> ids = Collections.singleton(idField.getValue(managedEntity));
+                textIndex.remove(entityClass, ids);
+                linkedObjectLookup.remove(entityClass, ids);
+            }
+            onEntitiesChanged();
+        });
+    }
+
+    /**
+     * Persists the entities in one transaction. The persistence context is flushed and cleared
+     * after every batch, so its size doesn't depend on the count of the entities,
+     * the inserts are sent by JDBC batches of hibernate.jdbc.batch_size.
+     * The entities of the transaction are text indexed after the commit, the lookup of linked objects is rebuilt
+     *
+     * @param progressListener receives the count of the persisted entities after every batch
+     * @return count of the persisted entities
+     */
+    @Transactional
+    public int persistAll(Iterator<T> entities, int batchSize, IntConsumer progressListener) {
+        int persisted = 0;
+        List<T> textIndexed = new ArrayList<>();
+        boolean textIndexing = !metadataRegistry.getMetadata(entityClass).getTextIndexedFields().isEmpty();
+        while (entities.hasNext()) {
+            T entity = entities.next();
+            entityManager.persist(entity);
+            if (textIndexing) textIndexed.add(entity);
+            if (++persisted % batchSize == 0) {
+                entityManager.flush();
+                entityManager.clear();
+                progressListener.accept(persisted);
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+        progressListener.accept(persisted);
+        afterCommit(() -> {
+            textIndexed.forEach(entity -> textIndex.index(entityClass, entity));
+            if (linkedObjectLookup.isIndexed(entityClass)) linkedObjectLookup.rebuild(entityClass);
+            onEntitiesChanged();
+        });
+        return persisted;
+    }
+
+    /**
+     * Deletes the rows by chunks of DELETE ... WHERE id IN (...) in one transaction.
+     * Entities which cascade the removal or own collections are removed one by one within the chunks,
+     * so JPA cascades and collection tables are still handled
+     *
+     * @param progressListener receives the count of the deleted rows after every chunk
+     */
+    @Transactional
+    public void deleteAllById(List<?> ids, IntConsumer progressListener) {
+        String idName = metadataRegistry.getMetadata(entityClass).getIdField().getName();
+        String entityName = entityManager.getMetamodel().entity(entityClass).getName();
+        boolean bulk = isBulkDeleteSupported();
+        int deleted = 0;
+        for (List<?> chunk : Lists.partition(ids, deleteChunkSize)) {
+            if (bulk) {
+                entityManager.createQuery("delete from " + entityName + " e where e." + idName + " in :ids")
+                        .setParameter("ids", chunk)
+                        .executeUpdate();
+            } else {
+                entityManager.createQuery("select e from " + entityName + " e where e." + idName + " in :ids", entityClass)
+                        .setParameter("ids", chunk)
+                        .getResultList()
+                        .forEach(entityManager::remove);
+                entityManager.flush();
+                entityManager.clear();
+            }
+            deleted += chunk.size();
+            progressListener.accept(deleted);
+        }
+        afterCommit(() -> {
+            textIndex.remove(entityClass, ids);
+            linkedObjectLookup.remove(entityClass, ids);
+            onEntitiesChanged();
+        });
+    }
+
+    /**
+     * bulk DELETE statements skip JPA cascades and the rows of collection tables
+     */
+    protected boolean isBulkDeleteSupported() {
+        EntityPersister persister = getEntityPersister();
+        for (Type propertyType : persister.getPropertyTypes()) {
+            if (propertyType.isCollectionType()) return false;
+        }
+        return !hasCascade(persister, CascadingActions.DELETE);
+    }
+
+    private EntityPersister getEntityPersister() {
+        return entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                .getMetamodel().entityPersister(entityClass);
+    }
+
+    /**
+     * drops everything remembered about the rows of the entity
+     */
+    protected void onEntitiesChanged() {
+        keysetCursors.invalidateAll();
+        entityChangeListeners.forEach(listener -> listener.onEntitiesChanged(entityClass));
+    }
+
+    /**
+     * runs the action when the current transaction is committed,
+     * so concurrent readers can't cache the data which is not committed yet
+     */
+    protected void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else action.run();
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class KeysetPosition {
+        private final QuerySignature signature;
+        private final int offset;
     }
 }
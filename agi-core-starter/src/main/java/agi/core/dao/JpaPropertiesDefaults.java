@@ -0,0 +1,79 @@
+package agi.core.dao;
+
+import agi.core.annotations.AgiCacheable;
+import agi.core.dao.cache.AgiRegionFactory;
+import agi.core.metadata.AgiIndex;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.cache.jcache.JCacheRegionFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Hibernate settings the generated forms rely on, unless the application sets them itself:
+ * eager collections and links of the grid rows are initialized by batches instead of one select per row,
+ * inserts of the imported rows are sent to the database by JDBC batches,
+ * IN lists, e.g. the ids found by {@link TextIndex}, are padded to the next power of two,
+ * so lists of different sizes share the SQL strings and the statement plans,
+ * {@link AgiCacheable} entities of {@link AgiIndex} are put into the Ehcache second-level cache
+ */
+@Component
+public class JpaPropertiesDefaults implements BeanPostProcessor, EnvironmentAware {
+
+    static final String BATCH_FETCH_SIZE = "hibernate.default_batch_fetch_size";
+    static final String JDBC_BATCH_SIZE = "hibernate.jdbc.batch_size";
+    static final String ORDER_INSERTS = "hibernate.order_inserts";
+    static final String IN_CLAUSE_PARAMETER_PADDING = "hibernate.query.in_clause_parameter_padding";
+    static final String USE_SECOND_LEVEL_CACHE = "hibernate.cache.use_second_level_cache";
+    static final String USE_QUERY_CACHE = "hibernate.cache.use_query_cache";
+    static final String REGION_FACTORY = "hibernate.cache.region.factory_class";
+    static final String CLASS_CACHE_PREFIX = "hibernate.classcache.";
+
+    private String batchFetchSize;
+    private String jdbcBatchSize;
+    private String queryCacheSize;
+    private String queryCacheTtlSeconds;
+    private String[] packages;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        batchFetchSize = environment.getProperty("agi.dao.batch-fetch-size", "50");
+        jdbcBatchSize = environment.getProperty("agi.dao.jdbc-batch-size", "50");
+        queryCacheSize = environment.getProperty(AgiRegionFactory.QUERY_MAX_SIZE, "1000");
+        queryCacheTtlSeconds = environment.getProperty(AgiRegionFactory.QUERY_TTL_SECONDS, "600");
+        packages = environment.getProperty("com.sepnotican.agi-package", String[].class, new String[0]);
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof JpaProperties) {
+            Map<String, String> properties = ((JpaProperties) bean).getProperties();
+            properties.putIfAbsent(BATCH_FETCH_SIZE, batchFetchSize);
+            properties.putIfAbsent(JDBC_BATCH_SIZE, jdbcBatchSize);
+            properties.putIfAbsent(ORDER_INSERTS, "true");
+            properties.putIfAbsent(IN_CLAUSE_PARAMETER_PADDING, "true");
+            Set<Class<?>> cacheableClasses = AgiIndex.getAnnotatedClasses(getClass().getClassLoader(), packages).stream()
+                    .filter(annotated -> annotated.isAnnotationPresent(AgiCacheable.class))
+                    .collect(Collectors.toSet());
+            if (!cacheableClasses.isEmpty()) putCacheProperties(properties, cacheableClasses);
+        }
+        return bean;
+    }
+
+    private void putCacheProperties(Map<String, String> properties, Set<Class<?>> cacheableClasses) {
+        properties.putIfAbsent(USE_SECOND_LEVEL_CACHE, "true");
+        properties.putIfAbsent(USE_QUERY_CACHE, "true");
+        properties.putIfAbsent(REGION_FACTORY, AgiRegionFactory.class.getName());
+        properties.putIfAbsent(JCacheRegionFactory.PROVIDER, EhcacheCachingProvider.class.getName());
+        properties.putIfAbsent(AgiRegionFactory.QUERY_MAX_SIZE, queryCacheSize);
+        properties.putIfAbsent(AgiRegionFactory.QUERY_TTL_SECONDS, queryCacheTtlSeconds);
+        cacheableClasses.forEach(cacheableClass ->
+                properties.putIfAbsent(CLASS_CACHE_PREFIX + cacheableClass.getName(), "nonstrict-read-write"));
+    }
+}
@@ -0,0 +1,263 @@
+package agi.core.dao;
+
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import com.google.common.collect.ImmutableSet;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Id and caption pairs of the {@link agi.core.annotations.AgiEntity} classes referenced by linked object fields,
+ * the caption is the value of {@link agi.core.annotations.AgiEntity#nameForInputSearch()}, as in the linked grid columns.
+ * Items are matched by the case-insensitive prefix of the search field, both by the index and by the database.
+ * Every class with at most agi.lookup.max-rows rows is kept in memory sorted by the search field,
+ * the index is built in background from the primary when the application is ready and follows the writes
+ * committed by {@link GenericDao}, writes committed while it is built are replayed on the built index.
+ * It is rebuilt after bulk imports.
+ * Other classes, and all of them until their index is built, are searched and counted in the database
+ * reading the id and the search field only
+ */
+@Slf4j
+@Component
+public class LinkedObjectLookup implements ApplicationListener<ApplicationReadyEvent> {
+
+    private static final int SCROLL_FETCH_SIZE = 1000;
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    @Value("${agi.lookup.max-rows:100000}")
+    private long maxRows;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    GenericDaoFactory genericDaoFactory;
+    @Autowired
+    TaskExecutor agiTaskExecutor;
+
+    /**
+     * indexes in use, they follow the writes
+     */
+    private final Map<Class<?>, LookupIndex> indexes = new ConcurrentHashMap<>();
+    /**
+     * writes to the classes being indexed, replayed once the index is built
+     */
+    private final Map<Class<?>, List<Consumer<LookupIndex>>> buffers = new HashMap<>();
+    /**
+     * classes to index again once their current build is over, e.g. imported meanwhile
+     */
+    private final Set<Class<?>> pendingRebuilds = new HashSet<>();
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        metadataRegistry.getAnnotatedClasses().stream()
+                .flatMap(metadata -> metadata.getLinkedObjects().stream())
+                .map(FieldMetadata::getType)
+                .filter(this::isSearchable)
+                .distinct()
+                .forEach(this::rebuild);
+    }
+
+    /**
+     * builds the index of the class in background, the current one is used meanwhile.
+     * A rebuild requested during the build of the class runs after it
+     */
+    public void rebuild(Class<?> entityClass) {
+        synchronized (buffers) {
+            if (buffers.containsKey(entityClass)) {
+                pendingRebuilds.add(entityClass);
+                return;
+            }
+            buffers.put(entityClass, new ArrayList<>());
+        }
+        try {
+            agiTaskExecutor.execute(() -> build(entityClass));
+        } catch (RejectedExecutionException e) {
+            synchronized (buffers) {
+                buffers.remove(entityClass);
+            }
+            log.warn("Lookup of {} is not rebuilt, the task executor is saturated", entityClass.getCanonicalName());
+        }
+    }
+
+    public boolean isIndexed(Class<?> entityClass) {
+        synchronized (buffers) {
+            return indexes.containsKey(entityClass) || buffers.containsKey(entityClass);
+        }
+    }
+
+    /**
+     * @param text prefix of the search field, empty for all rows
+     */
+    public List<LookupItem> find(Class<?> entityClass, String text, int offset, int limit) {
+        LookupIndex index = indexes.get(entityClass);
+        if (index != null) return index.find(normalize(text)).values().stream()
+                .skip(offset)
+                .limit(limit)
+                .collect(Collectors.toList());
+        FieldMetadata searchField = metadataRegistry.getMetadata(entityClass).getSearchField();
+        GenericDao<?> genericDao = genericDaoFactory.getGenericDaoForClass(entityClass);
+        return genericDao.getLookupTuples(getFilterSet(entityClass, text), offset, limit).stream()
+                .map(tuple -> new LookupItem(tuple[0], searchField.represent(tuple[1])))
+                .collect(Collectors.toList());
+    }
+
+    public int count(Class<?> entityClass, String text) {
+        LookupIndex index = indexes.get(entityClass);
+        if (index != null) return index.find(normalize(text)).size();
+        GenericDao<?> genericDao = genericDaoFactory.getGenericDaoForClass(entityClass);
+        return Math.toIntExact(genericDao.getCountByCriteriaFilterSet(getFilterSet(entityClass, text)));
+    }
+
+    /**
+     * @return item of the entity as the drop-down shows it, taken from the index by id when the class is indexed
+     */
+    public LookupItem getItem(Class<?> entityClass, Object entity) {
+        LookupItem item = toItem(entityClass, entity);
+        LookupIndex index = indexes.get(entityClass);
+        LookupItem indexed = index == null || item.getId() == null ? null : index.get(item.getId());
+        return indexed != null ? indexed : item;
+    }
+
+    /**
+     * indexes the current values of the entity, replacing the previous ones
+     */
+    public void index(Class<?> entityClass, Object entity) {
+        if (!isIndexed(entityClass)) return;
+        LookupItem item = toItem(entityClass, entity);
+        if (item.getId() == null) return;
+        String searchValue = normalize(item.getCaption());
+        write(entityClass, index -> index.put(item, searchValue));
+    }
+
+    public void remove(Class<?> entityClass, Collection<?> ids) {
+        write(entityClass, index -> ids.forEach(index::remove));
+    }
+
+    private LookupItem toItem(Class<?> entityClass, Object entity) {
+        EntityMetadata metadata = metadataRegistry.getMetadata(entityClass);
+        FieldMetadata searchField = metadata.getSearchField();
+        return new LookupItem(metadata.getIdField().getValue(entity), searchField.represent(searchField.getValue(entity)));
+    }
+
+    /**
+     * applies the write to the index in use and buffers it for the index being built
+     */
+    private void write(Class<?> entityClass, Consumer<LookupIndex> write) {
+        synchronized (buffers) {
+            LookupIndex index = indexes.get(entityClass);
+            if (index != null) write.accept(index);
+            List<Consumer<LookupIndex>> buffer = buffers.get(entityClass);
+            if (buffer != null) buffer.add(write);
+        }
+    }
+
+    /**
+     * reads the committed rows into a new index, then publishes it and replays the writes buffered meanwhile
+     */
+    private void build(Class<?> entityClass) {
+        GenericDao<?> genericDao = genericDaoFactory.getGenericDaoForClass(entityClass);
+        FieldMetadata searchField = metadataRegistry.getMetadata(entityClass).getSearchField();
+        long start = System.currentTimeMillis();
+        LookupIndex index = new LookupIndex();
+        boolean indexed = false;
+        boolean tooLarge = false;
+        try {
+            tooLarge = genericDao.getCountByCriteriaFilterSet(ImmutableSet.of()) > maxRows;
+            if (!tooLarge) {
+                genericDao.scrollLookupTuples(SCROLL_FETCH_SIZE, tuple -> {
+                    LookupItem item = new LookupItem(tuple[0], searchField.represent(tuple[1]));
+                    index.put(item, normalize(item.getCaption()));
+                });
+                indexed = true;
+            }
+        } finally {
+            boolean pending;
+            synchronized (buffers) {
+                List<Consumer<LookupIndex>> buffer = buffers.remove(entityClass);
+                if (indexed) {
+                    buffer.forEach(write -> write.accept(index));
+                    indexes.put(entityClass, index);
+                } else if (tooLarge) {
+                    indexes.remove(entityClass);
+                }
+                pending = pendingRebuilds.remove(entityClass);
+            }
+            if (pending) rebuild(entityClass);
+        }
+        if (indexed) {
+            log.info("Lookup of {} is indexed in {} ms", entityClass.getCanonicalName(), System.currentTimeMillis() - start);
+        } else {
+            log.info("Lookup of {} is not indexed, it has more than {} rows", entityClass.getCanonicalName(), maxRows);
+        }
+    }
+
+    private boolean isSearchable(Class<?> entityClass) {
+        EntityMetadata metadata = metadataRegistry.findMetadata(entityClass);
+        return metadata != null && metadata.isEntity() && metadata.getIdField() != null && metadata.getSearchField() != null;
+    }
+
+    /**
+     * prefix of the search field, compared as a string for the other types
+     */
+    Set<CriteriaFilter> getFilterSet(Class<?> entityClass, String text) {
+        if (text.isEmpty()) return ImmutableSet.of();
+        FieldMetadata searchField = metadataRegistry.getMetadata(entityClass).getSearchField();
+        if (searchField == null) throw new IllegalArgumentException("No field nameForInputSearch = "
+                + metadataRegistry.getMetadata(entityClass).getAgiEntity().nameForInputSearch() + " in " + entityClass.getCanonicalName());
+        return ImmutableSet.of(new CriteriaFilter(entityClass, searchField.getName(), text, CompareType.STARTS_WITH));
+    }
+
+    static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * items sorted by the search value and id, keys of the items by id to replace them
+     */
+    static class LookupIndex {
+        private final ConcurrentSkipListMap<String, LookupItem> items = new ConcurrentSkipListMap<>();
+        private final Map<Object, String> keys = new ConcurrentHashMap<>();
+
+        synchronized void put(LookupItem item, String searchValue) {
+            remove(item.getId());
+            String key = searchValue + KEY_SEPARATOR + item.getId();
+            items.put(key, item);
+            keys.put(item.getId(), key);
+        }
+
+        synchronized void remove(Object id) {
+            String key = keys.remove(id);
+            if (key != null) items.remove(key);
+        }
+
+        LookupItem get(Object id) {
+            String key = keys.get(id);
+            return key == null ? null : items.get(key);
+        }
+
+        NavigableMap<String, LookupItem> find(String prefix) {
+            if (prefix.isEmpty()) return items;
+            return items.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package agi.core.dao;
+
+public enum LoadMode {
+    /**
+     * grid rows are managed entities with every column
+     */
+    ENTITY,
+    /**
+     * grid rows are detached instances holding only the grid columns and linked objects,
+     * the full entity is loaded when an element form is opened
+     */
+    PROJECTION
+}
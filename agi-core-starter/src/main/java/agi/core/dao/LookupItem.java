@@ -0,0 +1,21 @@
+package agi.core.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Id and caption of a linked object offered by {@link LinkedObjectLookup}, equal by id
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode(of = "id")
+public class LookupItem {
+    private final Object id;
+    private final String caption;
+
+    @Override
+    public String toString() {
+        return caption;
+    }
+}
@@ -0,0 +1,194 @@
+package agi.core.dao;
+
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.vaadin.data.provider.QuerySortOrder;
+import com.vaadin.server.VaadinSession;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-wide cache of grid pages.
+ * Projection pages are shared by all sessions as tuples of values, every caller gets its own rows made of them,
+ * pages of entities are kept per session, so no session sees the instances read by another one.
+ * Concurrent requests of the same page wait for a single query to the database.
+ * Pages of an entity are dropped when the entity or an entity shown in its linked columns is changed,
+ * a page loaded across such a change is read again, a page read from a lagging replica is not cached,
+ * see {@link ReplicaRouting#read}
+ */
+@Component
+public class PageCache implements EntityChangeListener {
+
+    @Value("${agi.dao.page-cache.size:1000}")
+    private long cacheSize;
+    @Value("${agi.dao.page-cache.ttl-seconds:300}")
+    private long cacheTtlSeconds;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    QueryTemplateCache queryTemplateCache;
+    @Autowired
+    ReplicaRouting replicaRouting;
+
+    private Cache<PageKey, CachedPage> pages;
+    /**
+     * incremented on every change
+     */
+    private final AtomicLong generation = new AtomicLong();
+    /**
+     * generation of the last change by entity class
+     */
+    private final Map<Class<?>, Long> changes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        pages = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * @param projection rows hold only the grid columns, see {@link GenericDao#getRowsByCriteriaFilterSet}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> getPage(GenericDao<T> genericDao, Set<CriteriaFilter> filterSet,
+                               List<QuerySortOrder> sortOrders, int offset, int limit, boolean projection) {
+        Class<T> entityClass = genericDao.getEntityClass();
+        PageKey key = getKey(entityClass, filterSet, sortOrders, offset, limit, projection);
+        Callable<CachedPage> loader = () -> load(genericDao, key, filterSet, sortOrders);
+        try {
+            CachedPage page = pages.get(key, loader);
+            if (!page.shareable) pages.asMap().remove(key, page);
+            if (isStale(entityClass, page)) {
+                pages.asMap().remove(key, page);
+                page = pages.get(key, loader);
+                if (isStale(entityClass, page)) page = load(genericDao, key, filterSet, sortOrders);
+            }
+            return key.tuples ? toRows(genericDao, page.data) : (List<T>) page.data;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the cached page or null, never queries the database
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> getPageIfPresent(GenericDao<T> genericDao, Set<CriteriaFilter> filterSet,
+                                        List<QuerySortOrder> sortOrders, int offset, int limit, boolean projection) {
+        Class<T> entityClass = genericDao.getEntityClass();
+        PageKey key = getKey(entityClass, filterSet, sortOrders, offset, limit, projection);
+        CachedPage page = pages.getIfPresent(key);
+        if (page == null || isStale(entityClass, page)) return null;
+        return key.tuples ? toRows(genericDao, page.data) : (List<T>) page.data;
+    }
+
+    @Override
+    public void onEntitiesChanged(Class<?> entityClass) {
+        changes.merge(entityClass, generation.incrementAndGet(), Math::max);
+        pages.asMap().keySet().removeIf(key -> key.entityClass.equals(entityClass)
+                || isLinkedTo(key.entityClass, entityClass));
+    }
+
+    private CachedPage load(GenericDao<?> genericDao, PageKey key, Set<CriteriaFilter> filterSet,
+                            List<QuerySortOrder> sortOrders) {
+        long loadGeneration = generation.get();
+        ReplicaRouting.SharedRead<List<?>> read = replicaRouting.read(() -> {
+            if (key.tuples) return genericDao.getTuplesByCriteriaFilterSet(filterSet, sortOrders, key.offset, key.limit);
+            if (key.projection) return genericDao.getRowsByCriteriaFilterSet(filterSet, sortOrders, key.offset, key.limit);
+            return genericDao.getEntitiesByCriteriaFilterSet(filterSet, sortOrders, key.offset, key.limit);
+        }, getReadClasses(key.entityClass));
+        return new CachedPage(loadGeneration, Collections.unmodifiableList(read.getResult()), read.isShareable());
+    }
+
+    private List<Class<?>> getReadClasses(Class<?> pageClass) {
+        List<Class<?>> readClasses = new ArrayList<>();
+        readClasses.add(pageClass);
+        for (FieldMetadata linkedObject : metadataRegistry.getMetadata(pageClass).getLinkedObjects()) {
+            readClasses.add(linkedObject.getType());
+        }
+        return readClasses;
+    }
+
+    /**
+     * tuples of the projections without linked entities are shared, other pages are cached per session
+     */
+    private PageKey getKey(Class<?> entityClass, Set<CriteriaFilter> filterSet, List<QuerySortOrder> sortOrders,
+                           int offset, int limit, boolean projection) {
+        boolean tuples = projection && !queryTemplateCache.getProjectionColumns(entityClass).isHoldingEntities();
+        return new PageKey(entityClass, QuerySignature.of(filterSet, sortOrders), offset, limit, projection, tuples,
+                tuples ? null : getSessionId());
+    }
+
+    private String getSessionId() {
+        VaadinSession session = VaadinSession.getCurrent();
+        return session == null || session.getSession() == null ? null : session.getSession().getId();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> List<T> toRows(GenericDao<T> genericDao, List<?> tuples) {
+        List<T> rows = new ArrayList<>(tuples.size());
+        for (Object tuple : tuples) {
+            rows.add(genericDao.toRow((Object[]) tuple));
+        }
+        return rows;
+    }
+
+    /**
+     * the entity or a linked one has been changed after the page started loading
+     */
+    private boolean isStale(Class<?> pageClass, CachedPage page) {
+        if (changes.getOrDefault(pageClass, 0L) > page.generation) return true;
+        for (FieldMetadata linkedObject : metadataRegistry.getMetadata(pageClass).getLinkedObjects()) {
+            if (changes.getOrDefault(linkedObject.getType(), 0L) > page.generation) return true;
+        }
+        return false;
+    }
+
+    private boolean isLinkedTo(Class<?> pageClass, Class<?> changedClass) {
+        for (FieldMetadata linkedObject : metadataRegistry.getMetadata(pageClass).getLinkedObjects()) {
+            if (linkedObject.getType().equals(changedClass)) return true;
+        }
+        return false;
+    }
+
+    @AllArgsConstructor
+    private static class CachedPage {
+        private final long generation;
+        private final List<?> data;
+        private final boolean shareable;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class PageKey {
+        private final Class<?> entityClass;
+        private final QuerySignature signature;
+        private final int offset;
+        private final int limit;
+        private final boolean projection;
+        /**
+         * the page is kept as shared tuples, otherwise as the entities or rows of a session
+         */
+        private final boolean tuples;
+        private final String sessionId;
+    }
+}
@@ -0,0 +1,13 @@
+package agi.core.dao;
+
+public enum PaginationMode {
+    /**
+     * LIMIT offset, count - the database skips all rows before the offset
+     */
+    OFFSET,
+    /**
+     * WHERE (sort columns) > (last fetched key) - sequential pages are read by index seek,
+     * random jumps fall back to OFFSET
+     */
+    KEYSET
+}
@@ -0,0 +1,137 @@
+package agi.core.dao;
+
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.FieldMetadata;
+import lombok.Getter;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Select list of the grid columns read as a projection and the way back from its tuples to rows.
+ * A linked column takes two values, the id and the search field of the linked entity,
+ * which are set to a blank instance of the linked class, so no linked entity is loaded
+ * and the column shows the search field, see {@link agi.core.annotations.AgiEntity#nameForInputSearch()}.
+ * Linked classes without an id or a search field are selected as entities
+ */
+public class ProjectionColumns {
+
+    @Getter
+    private final List<FieldMetadata> columns;
+    /**
+     * metadata of the linked columns selected by id and search field, null for the other columns
+     */
+    private final List<EntityMetadata> projectedLinks;
+    /**
+     * some linked column is selected as an entity, so the tuples hold entities of the reading persistence context
+     */
+    @Getter
+    private final boolean holdingEntities;
+
+    /**
+     * @param linkedMetadata metadata of the linked classes, null for classes which are not annotated
+     */
+    public ProjectionColumns(EntityMetadata metadata, Function<Class<?>, EntityMetadata> linkedMetadata) {
+        this.columns = metadata.getGridColumns();
+        List<EntityMetadata> links = new ArrayList<>(columns.size());
+        boolean entities = false;
+        for (FieldMetadata column : columns) {
+            EntityMetadata linked = column.isLinkedObject() ? linkedMetadata.apply(column.getType()) : null;
+            if (linked != null && (linked.getIdField() == null || linked.getSearchField() == null)) linked = null;
+            entities |= column.isLinkedObject() && linked == null;
+            links.add(linked);
+        }
+        this.projectedLinks = Collections.unmodifiableList(links);
+        this.holdingEntities = entities;
+    }
+
+    /**
+     * @return the linked column is read by id and search field
+     */
+    public boolean isProjectedLink(int column) {
+        return projectedLinks.get(column) != null;
+    }
+
+    /**
+     * @return metadata of the linked class of a projected link, null for the other columns
+     */
+    public EntityMetadata getLinkedMetadata(int column) {
+        return projectedLinks.get(column);
+    }
+
+    /**
+     * grid columns in order of {@link EntityMetadata#getGridColumns()}, the linked ones through the joins l0, l1...
+     */
+    String toSelect(String alias) {
+        StringBuilder select = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) select.append(", ");
+            FieldMetadata column = columns.get(i);
+            EntityMetadata linked = projectedLinks.get(i);
+            if (linked != null) {
+                select.append('l').append(i).append('.').append(linked.getIdField().getName())
+                        .append(", l").append(i).append('.').append(linked.getSearchField().getName());
+            } else {
+                select.append(column.isLinkedObject() ? "l" + i : alias + '.' + column.getName());
+            }
+        }
+        return select.toString();
+    }
+
+    String toJoins(String alias) {
+        StringBuilder joins = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).isLinkedObject()) {
+                joins.append(" left join ").append(alias).append('.').append(columns.get(i).getName()).append(" l").append(i);
+            }
+        }
+        return joins.toString();
+    }
+
+    /**
+     * sets the values of the tuple to the grid columns of the row, a link with a null id is left null
+     */
+    public void fill(Object row, Object[] tuple) {
+        int position = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            EntityMetadata linked = projectedLinks.get(i);
+            Object value = tuple[position++];
+            if (linked != null) {
+                Object searchValue = tuple[position++];
+                if (value != null) {
+                    Object link = newInstance(linked.getEntityClass());
+                    linked.getIdField().setValue(link, value);
+                    linked.getSearchField().setValue(link, searchValue);
+                    value = link;
+                }
+            }
+            columns.get(i).setValue(row, value);
+        }
+    }
+
+    /**
+     * @return the column value of the tuple as shown in the grid
+     */
+    public String represent(Object[] tuple, int column) {
+        int position = 0;
+        for (int i = 0; i < column; i++) {
+            position += projectedLinks.get(i) != null ? 2 : 1;
+        }
+        EntityMetadata linked = projectedLinks.get(column);
+        if (linked == null) return columns.get(column).represent(tuple[position]);
+        return tuple[position] == null ? "" : linked.getSearchField().represent(tuple[position + 1]);
+    }
+
+    static Object newInstance(Class<?> aClass) {
+        try {
+            Constructor<?> constructor = aClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No-arg constructor is necessary: " + aClass.getCanonicalName(), e);
+        }
+    }
+}
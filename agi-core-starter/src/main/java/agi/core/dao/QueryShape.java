@@ -0,0 +1,71 @@
+package agi.core.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.vaadin.data.provider.QuerySortOrder;
+import com.vaadin.shared.data.sort.SortDirection;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Everything a query depends on except the parameter values:
+ * the entity, the filtered fields with their compare types and the sort columns.
+ * Queries of the same shape share one {@link QueryTemplate}
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public class QueryShape {
+
+    private final Class<?> entityClass;
+    private final ImmutableList<FilterShape> filters;
+    private final ImmutableList<SortShape> sortOrders;
+    /**
+     * the query seeks after the last key of the sort columns
+     */
+    private final boolean keyset;
+    /**
+     * the query selects the grid columns instead of the entity
+     */
+    private final boolean projection;
+
+    private QueryShape(Class<?> entityClass, ImmutableList<FilterShape> filters,
+                       ImmutableList<SortShape> sortOrders, boolean keyset, boolean projection) {
+        this.entityClass = entityClass;
+        this.filters = filters;
+        this.sortOrders = sortOrders;
+        this.keyset = keyset;
+        this.projection = projection;
+    }
+
+    public static QueryShape of(Class<?> entityClass, List<QuerySignature.FilterEntry> filters,
+                                List<QuerySortOrder> sortOrders, boolean keyset, boolean projection) {
+        return new QueryShape(entityClass,
+                filters.stream()
+                        .map(filter -> new FilterShape(filter.getFieldName(), filter.getCompareType()))
+                        .collect(ImmutableList.toImmutableList()),
+                sortOrders.stream()
+                        .map(order -> new SortShape(order.getSorted(), order.getDirection()))
+                        .collect(ImmutableList.toImmutableList()),
+                keyset, projection);
+    }
+
+    public static QueryShape of(Class<?> entityClass, List<QuerySignature.FilterEntry> filters) {
+        return of(entityClass, filters, ImmutableList.of(), false, false);
+    }
+
+    @Value
+    public static class FilterShape {
+        private final String fieldName;
+        private final CompareType compareType;
+    }
+
+    @Value
+    public static class SortShape {
+        private final String fieldName;
+        private final SortDirection direction;
+    }
+}
@@ -0,0 +1,71 @@
+package agi.core.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.vaadin.data.provider.QuerySortOrder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Value-based key of a query: the applied filters with their values and the sort orders.
+ * {@link CriteriaFilter} equality ignores the value, so it can't be used as a cache key by itself
+ */
+@Getter
+@EqualsAndHashCode
+@ToString
+public class QuerySignature {
+
+    private final ImmutableList<FilterEntry> filters;
+    private final ImmutableList<String> sortOrders;
+
+    private QuerySignature(ImmutableList<FilterEntry> filters, ImmutableList<String> sortOrders) {
+        this.filters = filters;
+        this.sortOrders = sortOrders;
+    }
+
+    public static QuerySignature of(Set<CriteriaFilter> filterSet, List<QuerySortOrder> sortOrders) {
+        ImmutableList<FilterEntry> filters = filterSet == null ? ImmutableList.of() : filterSet.stream()
+                .filter(filter -> !isEmptyValue(filter.getFieldValue()))
+                .map(filter -> new FilterEntry(filter.getFieldName(), filter.getCompareType(), filter.getFieldValue()))
+                .sorted(Comparator.comparing(FilterEntry::getFieldName))
+                .collect(ImmutableList.toImmutableList());
+        ImmutableList<String> sorts = sortOrders == null ? ImmutableList.of() : sortOrders.stream()
+                .map(order -> order.getSorted() + ' ' + order.getDirection())
+                .collect(ImmutableList.toImmutableList());
+        return new QuerySignature(filters, sorts);
+    }
+
+    public static QuerySignature of(Set<CriteriaFilter> filterSet) {
+        return of(filterSet, null);
+    }
+
+    /**
+     * empty filter values are skipped while building predicates
+     */
+    static boolean isEmptyValue(Object value) {
+        return value == null || (value instanceof String && ((String) value).isEmpty());
+    }
+
+    public boolean isFiltered() {
+        return !filters.isEmpty();
+    }
+
+    @Getter
+    @EqualsAndHashCode
+    @ToString
+    public static class FilterEntry {
+        private final String fieldName;
+        private final CompareType compareType;
+        private final Object fieldValue;
+
+        FilterEntry(String fieldName, CompareType compareType, Object fieldValue) {
+            this.fieldName = fieldName;
+            this.compareType = compareType;
+            this.fieldValue = fieldValue;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package agi.core.dao;
+
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.FieldMetadata;
+import com.google.common.collect.ImmutableList;
+import com.vaadin.shared.data.sort.SortDirection;
+import lombok.Getter;
+
+import javax.persistence.Query;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Parameterized JPQL compiled once per {@link QueryShape}.
+ * The same JPQL strings are passed to Hibernate for every query of the shape,
+ * so their translation to SQL is taken from the query plan cache, only parameters are bound
+ */
+@Getter
+public class QueryTemplate {
+
+    static final String ALIAS = "e";
+
+    private final QueryShape shape;
+    private final FetchPlan fetchPlan;
+    private final String selectJpql;
+    private final String countJpql;
+    private final String idJpql;
+    /**
+     * id and search field of the rows, see {@link LinkedObjectLookup}, null for entities without them
+     */
+    private final String lookupJpql;
+    /**
+     * converters of the filter values to the values of parameters :p0, :p1...
+     */
+    private final List<Function<Object, Object>> parameterBinders;
+
+    /**
+     * @param projectionColumns select list of the projection shapes
+     */
+    QueryTemplate(QueryShape shape, String entityName, EntityMetadata metadata, FetchPlan fetchPlan,
+                  ProjectionColumns projectionColumns) {
+        this.shape = shape;
+        this.fetchPlan = fetchPlan;
+        String from = " from " + entityName + ' ' + ALIAS;
+        String where = buildWhere(metadata);
+        this.selectJpql = shape.isProjection()
+                ? "select " + projectionColumns.toSelect(ALIAS) + from + projectionColumns.toJoins(ALIAS) + where + buildOrderBy()
+                : "select " + ALIAS + from + fetchPlan.toJpql(ALIAS) + where + buildOrderBy();
+        this.countJpql = "select count(" + ALIAS + ')' + from + where;
+        this.idJpql = metadata.getIdField() == null ? selectJpql
+                : "select " + path(metadata.getIdField().getName()) + from + where;
+        this.lookupJpql = metadata.getIdField() == null || metadata.getSearchField() == null ? null
+                : "select " + path(metadata.getIdField().getName()) + ", " + path(metadata.getSearchField().getName())
+                + from + where + buildOrderBy();
+        this.parameterBinders = shape.getFilters().stream()
+                .map(filter -> getParameterBinder(filter.getCompareType()))
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    /**
+     * @param filters filter values in the order of the shape
+     * @param lastKey values of the sort columns for the keyset shape
+     */
+    public void bind(Query query, List<QuerySignature.FilterEntry> filters, Object[] lastKey) {
+        for (int i = 0; i < filters.size(); i++) {
+            query.setParameter("p" + i, parameterBinders.get(i).apply(filters.get(i).getFieldValue()));
+        }
+        if (shape.isKeyset()) {
+            for (int i = 0; i < lastKey.length; i++) {
+                query.setParameter("k" + i, lastKey[i]);
+            }
+        }
+    }
+
+    private String buildWhere(EntityMetadata metadata) {
+        StringBuilder where = new StringBuilder();
+        List<QueryShape.FilterShape> filters = shape.getFilters();
+        for (int i = 0; i < filters.size(); i++) {
+            where.append(where.length() == 0 ? " where " : " and ");
+            QueryShape.FilterShape filter = filters.get(i);
+            String path = path(filter.getFieldName());
+            String parameter = ":p" + i;
+            switch (filter.getCompareType()) {
+                case EQUALS:
+                    where.append(path).append(" = ").append(parameter);
+                    break;
+                case NOT_EQUALS:
+                    where.append(path).append(" <> ").append(parameter);
+                    break;
+                case LIKE:
+                case STARTS_WITH:
+                    FieldMetadata field = metadata.getField(filter.getFieldName());
+                    if (field != null && field.getType() != String.class) path = "str(" + path + ')';
+                    where.append(path).append(" like ").append(parameter);
+                    break;
+                case IN:
+                    where.append(path).append(" in ").append(parameter);
+                    break;
+            }
+        }
+        if (shape.isKeyset()) {
+            where.append(where.length() == 0 ? " where " : " and ").append(buildKeysetCondition());
+        }
+        return where.toString();
+    }
+
+    /**
+     * Row value comparison (c1, c2) > (:k0, :k1) expanded to c1 > :k0 or (c1 = :k0 and c2 > :k1),
+     * MySQL sorts NULLs first, so descending columns also take the rows with NULL values
+     */
+    private String buildKeysetCondition() {
+        List<QueryShape.SortShape> sortOrders = shape.getSortOrders();
+        StringBuilder condition = new StringBuilder("(");
+        for (int i = 0; i < sortOrders.size(); i++) {
+            if (i > 0) condition.append(" or ");
+            condition.append('(');
+            for (int j = 0; j < i; j++) {
+                condition.append(path(sortOrders.get(j).getFieldName())).append(" = :k").append(j).append(" and ");
+            }
+            String path = path(sortOrders.get(i).getFieldName());
+            if (sortOrders.get(i).getDirection() == SortDirection.ASCENDING) {
+                condition.append(path).append(" > :k").append(i);
+            } else {
+                condition.append('(').append(path).append(" < :k").append(i)
+                        .append(" or ").append(path).append(" is null)");
+            }
+            condition.append(')');
+        }
+        return condition.append(')').toString();
+    }
+
+    private String buildOrderBy() {
+        if (shape.getSortOrders().isEmpty()) return "";
+        StringBuilder orderBy = new StringBuilder(" order by ");
+        for (QueryShape.SortShape sortOrder : shape.getSortOrders()) {
+            if (orderBy.length() > " order by ".length()) orderBy.append(", ");
+            orderBy.append(path(sortOrder.getFieldName()))
+                    .append(sortOrder.getDirection() == SortDirection.ASCENDING ? " asc" : " desc");
+        }
+        return orderBy.toString();
+    }
+
+    private static Function<Object, Object> getParameterBinder(CompareType compareType) {
+        switch (compareType) {
+            case LIKE:
+                return value -> value instanceof String ? "%" + value + "%" : value.toString();
+            case STARTS_WITH:
+                return value -> value + "%";
+            default:
+                return Function.identity();
+        }
+    }
+
+    private static String path(String fieldName) {
+        return ALIAS + '.' + fieldName;
+    }
+}
@@ -0,0 +1,91 @@
+package agi.core.dao;
+
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.EntityType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiled {@link QueryTemplate}s by {@link QueryShape}, hit and miss counters are exported to JMX
+ */
+@Slf4j
+@Component
+@ManagedResource(objectName = "agi:type=QueryTemplateCache")
+public class QueryTemplateCache {
+
+    @Value("${agi.dao.query-template-cache.size:1000}")
+    private long cacheSize;
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+
+    private Cache<QueryShape, QueryTemplate> templates;
+    private final Map<Class<?>, ProjectionColumns> projectionColumns = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        templates = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .build();
+    }
+
+    public QueryTemplate getTemplate(QueryShape shape) {
+        QueryTemplate template = templates.getIfPresent(shape);
+        if (template != null) {
+            hits.incrementAndGet();
+            return template;
+        }
+        try {
+            return templates.get(shape, () -> compile(shape));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    protected QueryTemplate compile(QueryShape shape) {
+        misses.incrementAndGet();
+        EntityType<?> entityType = entityManager.getMetamodel().entity(shape.getEntityClass());
+        EntityMetadata metadata = metadataRegistry.getMetadata(shape.getEntityClass());
+        QueryTemplate template = new QueryTemplate(shape, entityType.getName(), metadata,
+                FetchPlan.forListForm(metadata, entityType), getProjectionColumns(shape.getEntityClass()));
+        log.debug("Query template compiled: {}", template.getSelectJpql());
+        return template;
+    }
+
+    public ProjectionColumns getProjectionColumns(Class<?> entityClass) {
+        return projectionColumns.computeIfAbsent(entityClass,
+                aClass -> new ProjectionColumns(metadataRegistry.getMetadata(aClass), metadataRegistry::findMetadata));
+    }
+
+    @ManagedAttribute
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedAttribute
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @ManagedAttribute
+    public long getSize() {
+        return templates.size();
+    }
+}
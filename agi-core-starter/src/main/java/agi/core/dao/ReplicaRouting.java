@@ -0,0 +1,186 @@
+package agi.core.dao;
+
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.vaadin.server.VaadinSession;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Routes the read-only transactions of {@link GenericDao} to MySQL replicas when agi.datasource.replica-urls is set.
+ * A replica behind the primary more than agi.datasource.max-replica-lag-seconds, or not replicating, gets no reads
+ * until it catches up. A session which has saved or deleted entities reads from the primary
+ * for agi.datasource.sticky-primary-seconds, so its forms show its own changes.
+ * Other sessions may still read the old rows from a replica, so such results are not cached node-wide, see {@link #read}
+ */
+@Slf4j
+@Component
+public class ReplicaRouting implements BeanPostProcessor, EnvironmentAware, EntityChangeListener, DisposableBean {
+
+    static final String LAG_QUERY = "SHOW SLAVE STATUS";
+    static final String LAG_COLUMN = "Seconds_Behind_Master";
+
+    private Environment environment;
+    private List<String> replicaUrls;
+    private long maxLagSeconds;
+    private long lagCheckIntervalSeconds;
+    private Cache<VaadinSession, Boolean> stickySessions;
+    private ScheduledExecutorService lagChecker;
+    private List<DataSource> replicas = Collections.emptyList();
+    /**
+     * time of the last change by entity class
+     */
+    private final Map<Class<?>, Long> lastChanges = new ConcurrentHashMap<>();
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+        replicaUrls = Splitter.on(',').trimResults().omitEmptyStrings()
+                .splitToList(environment.getProperty("agi.datasource.replica-urls", ""));
+        maxLagSeconds = environment.getProperty("agi.datasource.max-replica-lag-seconds", Long.class, 5L);
+        lagCheckIntervalSeconds = environment.getProperty("agi.datasource.lag-check-interval-seconds", Long.class, 5L);
+        stickySessions = CacheBuilder.newBuilder()
+                .weakKeys()
+                .expireAfterWrite(environment.getProperty("agi.datasource.sticky-primary-seconds", Long.class, 10L),
+                        TimeUnit.SECONDS)
+                .build();
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof DataSource) || !"dataSource".equals(beanName) || replicaUrls.isEmpty()) return bean;
+        replicas = replicaUrls.stream().map(this::createReplica).collect(Collectors.toList());
+        ReplicaRoutingDataSource routingDataSource = new ReplicaRoutingDataSource((DataSource) bean, replicas,
+                this::isPrimaryRequired);
+        lagChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "agi-replica-lag");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lagChecker.scheduleWithFixedDelay(() -> checkLag(routingDataSource),
+                0, lagCheckIntervalSeconds, TimeUnit.SECONDS);
+        log.info("Read-only transactions are routed to {} replicas", replicas.size());
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    /**
+     * called after commit of the writing transaction, in the thread of the session which made the changes
+     */
+    @Override
+    public void onEntitiesChanged(Class<?> entityClass) {
+        lastChanges.put(entityClass, System.currentTimeMillis());
+        VaadinSession session = VaadinSession.getCurrent();
+        if (session != null) stickySessions.put(session, Boolean.TRUE);
+    }
+
+    /**
+     * Runs the reads of a result cached for all sessions.
+     * A result read from a replica while it may still miss a recent change of the classes,
+     * that is within the allowed lag plus the lag check interval, is returned but not shared
+     *
+     * @param readClasses the entity classes the result is read from
+     */
+    public <V> SharedRead<V> read(Supplier<V> reader, Collection<Class<?>> readClasses) {
+        long start = System.currentTimeMillis();
+        ReplicaRoutingDataSource.pollReplicaRead();
+        V result = reader.get();
+        if (!ReplicaRoutingDataSource.pollReplicaRead()) return new SharedRead<>(result, true);
+        long laggingSince = start - TimeUnit.SECONDS.toMillis(maxLagSeconds + lagCheckIntervalSeconds);
+        for (Class<?> readClass : readClasses) {
+            if (lastChanges.getOrDefault(readClass, 0L) > laggingSince) return new SharedRead<>(result, false);
+        }
+        return new SharedRead<>(result, true);
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (lagChecker != null) lagChecker.shutdownNow();
+        for (DataSource replica : replicas) {
+            if (replica instanceof Closeable) ((Closeable) replica).close();
+        }
+    }
+
+    private boolean isPrimaryRequired() {
+        VaadinSession session = VaadinSession.getCurrent();
+        return session != null && stickySessions.getIfPresent(session) != null;
+    }
+
+    /**
+     * replicas use the credentials of spring.datasource unless agi.datasource.replica-username/password are set
+     */
+    private DataSource createReplica(String url) {
+        return DataSourceBuilder.create()
+                .url(url)
+                .driverClassName(environment.getProperty("spring.datasource.driver-class-name"))
+                .username(environment.getProperty("agi.datasource.replica-username",
+                        environment.getProperty("spring.datasource.username", "")))
+                .password(environment.getProperty("agi.datasource.replica-password",
+                        environment.getProperty("spring.datasource.password", "")))
+                .build();
+    }
+
+    private void checkLag(ReplicaRoutingDataSource routingDataSource) {
+        for (int i = 0; i < routingDataSource.getReplicas().size(); i++) {
+            boolean available;
+            try {
+                Long lag = getLagSeconds(routingDataSource.getReplicas().get(i));
+                available = lag != null && lag <= maxLagSeconds;
+                if (!available) log.warn("Replica {} is skipped, lag: {} s", replicaUrls.get(i), lag);
+            } catch (SQLException | RuntimeException e) {
+                available = false;
+                log.warn("Replica {} is skipped: {}", replicaUrls.get(i), e.getMessage());
+            }
+            routingDataSource.setAvailable(i, available);
+        }
+    }
+
+    /**
+     * @return seconds behind the primary, 0 for a server which is not a replica, null if replication is stopped
+     */
+    private Long getLagSeconds(DataSource replica) throws SQLException {
+        try (Connection connection = replica.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(LAG_QUERY)) {
+            if (!resultSet.next()) return 0L;
+            long lag = resultSet.getLong(LAG_COLUMN);
+            return resultSet.wasNull() ? null : lag;
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class SharedRead<V> {
+        private final V result;
+        /**
+         * the result may be cached for all sessions
+         */
+        private final boolean shareable;
+    }
+}
@@ -0,0 +1,83 @@
+package agi.core.dao;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sends read-only transactions to a replica which is not behind the primary more than allowed,
+ * everything else goes to the primary. Has to be wrapped by
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: the JPA transaction takes
+ * its connection before the transaction is marked read-only
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final Object PRIMARY = "primary";
+    private static final ThreadLocal<Boolean> REPLICA_READ = new ThreadLocal<>();
+
+    private final List<DataSource> replicas;
+    private volatile boolean[] available;
+    private final BooleanSupplier primaryRequired;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param primaryRequired reads of the current session have to see its own writes
+     */
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, BooleanSupplier primaryRequired) {
+        this.replicas = replicas;
+        this.available = new boolean[replicas.size()];
+        this.primaryRequired = primaryRequired;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            targets.put(i, replicas.get(i));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    public List<DataSource> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * @return some connection has been routed to a replica in the current thread since the last call
+     */
+    static boolean pollReplicaRead() {
+        boolean replicaRead = REPLICA_READ.get() != null;
+        REPLICA_READ.remove();
+        return replicaRead;
+    }
+
+    public synchronized void setAvailable(int replica, boolean isAvailable) {
+        boolean[] copy = available.clone();
+        copy[replica] = isAvailable;
+        available = copy;
+    }
+
+    /**
+     * replicas are taken by turns, skipping the unavailable ones
+     */
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || primaryRequired.getAsBoolean())
+            return PRIMARY;
+        boolean[] available = this.available;
+        int start = Math.floorMod(next.getAndIncrement(), available.length);
+        for (int i = 0; i < available.length; i++) {
+            int replica = (start + i) % available.length;
+            if (available[replica]) {
+                REPLICA_READ.set(Boolean.TRUE);
+                return replica;
+            }
+        }
+        return PRIMARY;
+    }
+}
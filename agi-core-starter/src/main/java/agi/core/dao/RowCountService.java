@@ -0,0 +1,139 @@
+package agi.core.dao;
+
+import agi.core.metadata.EntityMetadataRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row counts for {@link GenericBackendDataProvider#sizeInBackEnd}.
+ * Counts are cached per entity and filter values, so scrolling and re-applying the same filters
+ * don't hit the database, and are invalidated by {@link GenericDao} on save and delete.
+ * A count read from a lagging replica is not cached, see {@link ReplicaRouting#read}
+ */
+@Slf4j
+@Component
+public class RowCountService implements EntityChangeListener {
+
+    @Value("${agi.dao.count.cache-ttl-seconds:30}")
+    private long cacheTtlSeconds;
+    @Value("${agi.dao.count.cache-size:10000}")
+    private long cacheSize;
+    @Value("${agi.dao.count.cap:1000}")
+    private int countCap;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    ReplicaRouting replicaRouting;
+
+    private Cache<CountKey, RowCount> countCache;
+
+    @PostConstruct
+    public void init() {
+        countCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public long getCount(GenericDao<?> genericDao, Set<CriteriaFilter> filterSet) {
+        QuerySignature signature = QuerySignature.of(filterSet);
+        CountKey key = new CountKey(genericDao.getEntityClass(), signature);
+        try {
+            RowCount count = countCache.get(key, () -> countInBackEnd(genericDao, filterSet, signature));
+            if (!count.shareable) countCache.asMap().remove(key, count);
+            return count.value;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the cached count or null, never queries the database
+     */
+    public Long getCountIfPresent(Class<?> entityClass, Set<CriteriaFilter> filterSet) {
+        RowCount count = countCache.getIfPresent(new CountKey(entityClass, QuerySignature.of(filterSet)));
+        return count == null ? null : count.value;
+    }
+
+    /**
+     * Corrects an estimated or capped count by a page read at the given offset:
+     * a short page tells the real end of the rows, a full page reaching the count extends it by agi.dao.count.cap rows
+     * past the known end, so the rows past an estimate or a cap stay reachable by scrolling
+     *
+     * @return the count has been changed, the grid has to be refreshed to get it
+     */
+    public boolean onPageLoaded(GenericDao<?> genericDao, Set<CriteriaFilter> filterSet, int offset, int limit, int loaded) {
+        CountKey key = new CountKey(genericDao.getEntityClass(), QuerySignature.of(filterSet));
+        RowCount count = countCache.getIfPresent(key);
+        if (count == null || count.exact) return false;
+        RowCount corrected;
+        if (loaded == 0 && offset > 0) {
+            corrected = countCapped(genericDao, filterSet, offset);
+        } else if (loaded < limit) {
+            corrected = new RowCount(offset + loaded, true, true);
+        } else if (offset + loaded >= count.value) {
+            corrected = countCapped(genericDao, filterSet, Math.max(count.value, offset + loaded) + countCap);
+        } else {
+            return false;
+        }
+        countCache.asMap().replace(key, count, corrected);
+        return corrected.value != count.value;
+    }
+
+    @Override
+    public void onEntitiesChanged(Class<?> entityClass) {
+        countCache.asMap().keySet().removeIf(key -> key.entityClass.equals(entityClass));
+    }
+
+    protected RowCount countInBackEnd(GenericDao<?> genericDao, Set<CriteriaFilter> filterSet, QuerySignature signature) {
+        ReplicaRouting.SharedRead<RowCount> read = replicaRouting.read(() -> {
+            CountMode countMode = metadataRegistry.getMetadata(genericDao.getEntityClass()).getCountMode();
+            if (countMode == CountMode.ESTIMATED) {
+                if (signature.isFiltered()) return countCapped(genericDao, filterSet, countCap);
+                Long estimatedCount = genericDao.getEstimatedCount();
+                if (estimatedCount != null) return new RowCount(estimatedCount, false, true);
+            }
+            return new RowCount(genericDao.getCountByCriteriaFilterSet(filterSet), true, true);
+        }, Collections.singleton(genericDao.getEntityClass()));
+        RowCount count = read.getResult();
+        return read.isShareable() ? count : new RowCount(count.value, count.exact, false);
+    }
+
+    private RowCount countCapped(GenericDao<?> genericDao, Set<CriteriaFilter> filterSet, long cap) {
+        long count = genericDao.getCappedCountByCriteriaFilterSet(filterSet, cap);
+        return new RowCount(count, count < cap, true);
+    }
+
+    /**
+     * a count which is not exact is a statistics estimate or a cap, corrected as the rows get read
+     */
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class RowCount {
+        private final long value;
+        private final boolean exact;
+        /**
+         * the count may be cached for all sessions
+         */
+        private final boolean shareable;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class CountKey {
+        private final Class<?> entityClass;
+        private final QuerySignature signature;
+    }
+}
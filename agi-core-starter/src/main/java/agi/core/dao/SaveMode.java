@@ -0,0 +1,13 @@
+package agi.core.dao;
+
+public enum SaveMode {
+    /**
+     * merge, flush and refresh of the whole entity with its eager collections
+     */
+    MERGE,
+    /**
+     * persist of new instances, UPDATE of the changed fields only,
+     * only the database generated fields are read back
+     */
+    LEAN
+}
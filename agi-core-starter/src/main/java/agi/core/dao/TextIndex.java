@@ -0,0 +1,265 @@
+package agi.core.dao;
+
+import agi.core.annotations.Filtered;
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory trigram index of the String fields marked by {@link Filtered#textIndex()}.
+ * Resolves substring filters to the ids of the matching rows, so the dao queries them by primary key
+ * instead of scanning the table with LIKE '%value%'.
+ * The index is built in background when the application is ready and follows the writes committed by {@link GenericDao},
+ * writes committed while it is built are replayed on the built index.
+ * Classes with more than agi.text-index.max-rows rows are not indexed, so the memory held by the values is bounded
+ */
+@Slf4j
+@Component
+public class TextIndex implements ApplicationListener<ApplicationReadyEvent> {
+
+    static final int GRAM = 3;
+    private static final int SCROLL_FETCH_SIZE = 1000;
+
+    @Value("${agi.text-index.max-ids:256}")
+    private int maxIds;
+    @Value("${agi.text-index.max-rows:1000000}")
+    private long maxRows;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    PlatformTransactionManager transactionManager;
+    @Autowired
+    TaskExecutor agiTaskExecutor;
+
+    /**
+     * built indexes, a field is missing until its index is built
+     */
+    private final Map<IndexKey, FieldIndex> indexes = new ConcurrentHashMap<>();
+    /**
+     * writes to the classes being indexed, replayed once the index is built
+     */
+    private final Map<Class<?>, List<Runnable>> buffers = new HashMap<>();
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        for (EntityMetadata metadata : metadataRegistry.getAnnotatedClasses()) {
+            if (metadata.getTextIndexedFields().isEmpty() || metadata.getIdField() == null) continue;
+            synchronized (buffers) {
+                buffers.put(metadata.getEntityClass(), new ArrayList<>());
+            }
+            agiTaskExecutor.execute(() -> build(metadata));
+        }
+    }
+
+    /**
+     * @return ids of the rows containing the value, null if the index can't answer:
+     * it is not built, the value is shorter than a trigram or it matches more than agi.text-index.max-ids rows,
+     * the filter is then resolved by LIKE, a longer IN list would be slower than the scan
+     */
+    public Set<Object> find(Class<?> entityClass, String fieldName, String value) {
+        FieldIndex index = indexes.get(new IndexKey(entityClass, fieldName));
+        if (index == null || value.length() < GRAM) return null;
+        return index.find(normalize(value), maxIds);
+    }
+
+    /**
+     * indexes the committed values of the entity, replacing the previous ones
+     */
+    public void index(Class<?> entityClass, Object entity) {
+        EntityMetadata metadata = metadataRegistry.getMetadata(entityClass);
+        if (metadata.getTextIndexedFields().isEmpty() || metadata.getIdField() == null) return;
+        Object id = metadata.getIdField().getValue(entity);
+        if (id == null) return;
+        for (FieldMetadata field : metadata.getTextIndexedFields()) {
+            IndexKey key = new IndexKey(entityClass, field.getName());
+            String value = (String) field.getValue(entity);
+            write(entityClass, () -> {
+                FieldIndex index = indexes.get(key);
+                if (index == null) return;
+                index.put(id, value);
+                if (index.size() > maxRows) drop(key);
+            });
+        }
+    }
+
+    public void remove(Class<?> entityClass, Collection<?> ids) {
+        for (FieldMetadata field : metadataRegistry.getMetadata(entityClass).getTextIndexedFields()) {
+            IndexKey key = new IndexKey(entityClass, field.getName());
+            write(entityClass, () -> {
+                FieldIndex index = indexes.get(key);
+                if (index != null) ids.forEach(index::remove);
+            });
+        }
+    }
+
+    private void write(Class<?> entityClass, Runnable write) {
+        synchronized (buffers) {
+            List<Runnable> buffer = buffers.get(entityClass);
+            if (buffer != null) {
+                buffer.add(write);
+                return;
+            }
+        }
+        write.run();
+    }
+
+    private void drop(IndexKey key) {
+        if (indexes.remove(key) != null) {
+            log.info("Text index of {}.{} is dropped, it has more than {} rows",
+                    key.entityClass.getCanonicalName(), key.fieldName, maxRows);
+        }
+    }
+
+    /**
+     * reads the committed values into new indexes, then publishes them and replays the writes buffered meanwhile
+     */
+    private void build(EntityMetadata metadata) {
+        Class<?> entityClass = metadata.getEntityClass();
+        List<FieldMetadata> fields = metadata.getTextIndexedFields();
+        String entityName = entityManager.getMetamodel().entity(entityClass).getName();
+        String jpql = fields.stream().map(field -> "e." + field.getName())
+                .collect(Collectors.joining(", ", "select e." + metadata.getIdField().getName() + ", ", " from "))
+                + entityName + " e";
+        long start = System.currentTimeMillis();
+        List<FieldIndex> built = new ArrayList<>();
+        fields.forEach(field -> built.add(new FieldIndex()));
+        boolean indexed = false;
+        try {
+            indexed = Boolean.TRUE.equals(new TransactionTemplate(transactionManager).execute(status -> {
+                Long count = entityManager.createQuery("select count(e) from " + entityName + " e", Long.class)
+                        .getSingleResult();
+                if (count > maxRows) return false;
+                try (ScrollableResults results = entityManager.createQuery(jpql)
+                        .unwrap(org.hibernate.query.Query.class)
+                        .setFetchSize(SCROLL_FETCH_SIZE)
+                        .setReadOnly(true)
+                        .scroll(ScrollMode.FORWARD_ONLY)) {
+                    while (results.next()) {
+                        Object[] row = results.get();
+                        for (int i = 0; i < fields.size(); i++) {
+                            built.get(i).put(row[0], (String) row[i + 1]);
+                        }
+                    }
+                }
+                return true;
+            }));
+        } finally {
+            synchronized (buffers) {
+                if (indexed) {
+                    for (int i = 0; i < fields.size(); i++) {
+                        indexes.put(new IndexKey(entityClass, fields.get(i).getName()), built.get(i));
+                    }
+                }
+                buffers.remove(entityClass).forEach(Runnable::run);
+            }
+        }
+        if (indexed) {
+            log.info("Text index of {} is built in {} ms", metadata.getName(), System.currentTimeMillis() - start);
+        } else {
+            log.info("Text index of {} is not built, it has more than {} rows", metadata.getName(), maxRows);
+        }
+    }
+
+    /**
+     * MySQL compares strings case-insensitively by default
+     */
+    static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    static Set<String> grams(String value) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM <= value.length(); i++) {
+            grams.add(value.substring(i, i + GRAM));
+        }
+        return grams;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class IndexKey {
+        private final Class<?> entityClass;
+        private final String fieldName;
+    }
+
+    /**
+     * postings of every trigram plus the indexed value of every id to verify the candidates
+     */
+    static class FieldIndex {
+        private final Map<String, Set<Object>> postings = new ConcurrentHashMap<>();
+        private final Map<Object, String> values = new ConcurrentHashMap<>();
+
+        synchronized void put(Object id, String value) {
+            remove(id);
+            if (value == null) return;
+            String normalized = normalize(value);
+            values.put(id, normalized);
+            grams(normalized).forEach(gram -> postings.computeIfAbsent(gram, key -> ConcurrentHashMap.newKeySet()).add(id));
+        }
+
+        synchronized void remove(Object id) {
+            String value = values.remove(id);
+            if (value == null) return;
+            for (String gram : grams(value)) {
+                Set<Object> ids = postings.get(gram);
+                if (ids == null) continue;
+                ids.remove(id);
+                if (ids.isEmpty()) postings.remove(gram);
+            }
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        /**
+         * @param value normalized value of at least {@link #GRAM} characters
+         * @return ids of the values containing the value, null if there are more than maxIds of them
+         */
+        Set<Object> find(String value, int maxIds) {
+            Set<Object> smallest = null;
+            for (String gram : grams(value)) {
+                Set<Object> ids = postings.getOrDefault(gram, Collections.emptySet());
+                if (smallest == null || ids.size() < smallest.size()) smallest = ids;
+            }
+            if (smallest == null) return null;
+            Set<Object> found = new HashSet<>();
+            for (Object id : smallest) {
+                String indexedValue = values.get(id);
+                if (indexedValue != null && indexedValue.contains(value)) {
+                    found.add(id);
+                    if (found.size() > maxIds) return null;
+                }
+            }
+            return found;
+        }
+    }
+}
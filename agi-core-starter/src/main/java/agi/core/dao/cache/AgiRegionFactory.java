@@ -0,0 +1,88 @@
+package agi.core.dao.cache;
+
+import agi.core.annotations.AgiCacheable;
+import lombok.extern.slf4j.Slf4j;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.expiry.ExpiryPolicy;
+import org.ehcache.jsr107.Eh107Configuration;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.jcache.JCacheRegionFactory;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+
+import javax.cache.Cache;
+import java.time.Duration;
+import java.util.Properties;
+
+/**
+ * JCache region factory of Hibernate backed by Ehcache for the {@link AgiCacheable} entities.
+ * Entity regions take their size and time to live from the annotation, query results are bounded by
+ * agi.cache.query.max-size and agi.cache.query.ttl-seconds, the update timestamps never expire.
+ * Statistics of the regions are exported as javax.cache MBeans. Configured by {@link agi.core.dao.JpaPropertiesDefaults}
+ */
+@Slf4j
+public class AgiRegionFactory extends JCacheRegionFactory {
+
+    public static final String QUERY_MAX_SIZE = "agi.cache.query.max-size";
+    public static final String QUERY_TTL_SECONDS = "agi.cache.query.ttl-seconds";
+    /**
+     * one entry per table
+     */
+    private static final long TIMESTAMPS_MAX_SIZE = 10_000;
+
+    private long queryMaxSize;
+    private long queryTtlSeconds;
+    private ClassLoader classLoader;
+
+    @Override
+    public void start(SessionFactoryOptions settings, Properties properties) {
+        queryMaxSize = Long.parseLong(properties.getProperty(QUERY_MAX_SIZE, "1000"));
+        queryTtlSeconds = Long.parseLong(properties.getProperty(QUERY_TTL_SECONDS, "600"));
+        classLoader = Thread.currentThread().getContextClassLoader();
+        super.start(settings, properties);
+    }
+
+    /**
+     * region of an entity is named by its class, regions without a description hold query results or timestamps
+     */
+    @Override
+    protected Cache<Object, Object> createCache(String regionName, Properties properties, CacheDataDescription metadata) {
+        Cache<Object, Object> cache;
+        if (metadata != null) {
+            AgiCacheable cacheable = findCacheable(regionName);
+            if (cacheable == null) throw new CacheException("Entity region " + regionName + " requires @AgiCacheable");
+            cache = createCache(regionName, cacheable.maxSize(), cacheable.ttlSeconds());
+        } else if (regionName.endsWith(UpdateTimestampsCache.REGION_NAME)) {
+            cache = createCache(regionName, TIMESTAMPS_MAX_SIZE, 0);
+        } else {
+            cache = createCache(regionName, queryMaxSize, queryTtlSeconds);
+        }
+        getCacheManager().enableStatistics(regionName, true);
+        log.debug("Second-level cache region {} is built", regionName);
+        return cache;
+    }
+
+    /**
+     * @param ttlSeconds 0 for entries which don't expire
+     */
+    private Cache<Object, Object> createCache(String regionName, long maxSize, long ttlSeconds) {
+        ExpiryPolicy<Object, Object> expiry = ttlSeconds > 0
+                ? ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofSeconds(ttlSeconds))
+                : ExpiryPolicyBuilder.noExpiration();
+        return getCacheManager().createCache(regionName, Eh107Configuration.fromEhcacheCacheConfiguration(
+                CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
+                        ResourcePoolsBuilder.heap(maxSize))
+                        .withExpiry(expiry)));
+    }
+
+    private AgiCacheable findCacheable(String regionName) {
+        try {
+            return Class.forName(regionName, false, classLoader).getAnnotation(AgiCacheable.class);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package agi.core.dao.cache;
+
+import agi.core.annotations.AgiCacheable;
+import agi.core.dao.EntityChangeListener;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Evicts the cached query results when {@link AgiCacheable} entities are changed through {@link agi.core.dao.GenericDao}.
+ * Hibernate keeps the cached entities consistent with the writes itself, so their regions are not evicted
+ * and rarely edited reference data stays cached.
+ * Statistics of the regions are the javax.cache:type=CacheStatistics MBeans of {@link AgiRegionFactory}
+ */
+@Component
+@ManagedResource(objectName = "agi:type=SecondLevelCache")
+public class SecondLevelCache implements EntityChangeListener {
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Override
+    public void onEntitiesChanged(Class<?> entityClass) {
+        if (entityClass.isAnnotationPresent(AgiCacheable.class)) {
+            entityManagerFactory.unwrap(SessionFactory.class).getCache().evictQueryRegions();
+        }
+    }
+
+    @ManagedOperation
+    public void evictAll() {
+        entityManagerFactory.getCache().evictAll();
+    }
+}
@@ -0,0 +1,31 @@
+package agi.core.form;
+
+import agi.core.dao.CriteriaFilter;
+import com.vaadin.data.provider.QuerySortOrder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What is left of a passivated form in {@link MainFormHandler}, enough to build it again:
+ * the entity of an element form, the filters and the sorting of a list form
+ */
+@Getter
+@AllArgsConstructor
+public class FormState {
+
+    private final String formCacheName;
+    private final Class<?> entityClass;
+    /**
+     * id of the entity of an element form, null for a list form
+     */
+    private final Object entityId;
+    private final Set<CriteriaFilter> filters;
+    private final List<QuerySortOrder> sortOrders;
+
+    public boolean isElementForm() {
+        return entityId != null;
+    }
+}
@@ -1,24 +1,34 @@
 package agi.core.form;
 
-import agi.core.annotations.AgiEntity;
-import agi.core.annotations.AgiForm;
+import agi.core.dao.GenericDaoFactory;
 import agi.core.form.generic.AbstractElementForm;
 import agi.core.form.generic.AbstractListForm;
-import com.vaadin.icons.VaadinIcons;
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
 import com.vaadin.ui.AbstractOrderedLayout;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.CssLayout;
 import com.vaadin.ui.Notification;
 import com.vaadin.ui.TabSheet;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
 import com.vaadin.ui.VerticalLayout;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Scope;
+import org.springframework.scheduling.TaskScheduler;
 
 import javax.annotation.PostConstruct;
-import javax.persistence.Id;
-import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 @org.springframework.stereotype.Component
 @Slf4j
@@ -29,8 +39,30 @@ public class MainFormHandler extends VerticalLayout implements IFormHandler {
     private static final String DEFAULT_ELEMENT_FORM_PREFIX = "DEF_ELEM_";
     @Autowired
     ApplicationContext context;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    GenericDaoFactory genericDaoFactory;
+    @Value("${agi.forms.tabs.passivate-after-minutes:15}")
+    private long passivateAfterMinutes;
+    @Value("${agi.forms.tabs.max-active:10}")
+    private int maxActiveTabs;
+    @Value("${agi.forms.tabs.passivate-check-seconds:60}")
+    private long passivateCheckSeconds;
+    @Autowired
+    TaskScheduler agiFormScheduler;
+    private ScheduledFuture<?> passivationCheck;
     private TabSheet tabSheet;
     private Map<String, TabSheet.Tab> openedForms = new HashMap<>();
+    /**
+     * last selection time of the forms which have their components built
+     */
+    private Map<Component, Long> activeForms = new HashMap<>();
+    /**
+     * states of the passivated forms by the empty components standing in their tabs
+     */
+    private Map<Component, FormState> passivatedForms = new HashMap<>();
+    private boolean replacing;
     private AbstractOrderedLayout mainLayout;
 
     public MainFormHandler() {
@@ -67,8 +99,13 @@ public class MainFormHandler extends VerticalLayout implements IFormHandler {
             if (openedForms.containsValue(tab)) {
                 openedForms.entrySet().removeIf((entry) -> entry.getValue().equals(tab));
             }
+            activeForms.remove(tabContent);
+            passivatedForms.remove(tabContent);
             tabsheet.removeTab(tab);
         });
+        tabSheet.addSelectedTabChangeListener(event -> {
+            if (!replacing && tabSheet.getSelectedTab() != null) onFormSelected(tabSheet.getSelectedTab());
+        });
         tabSheet.setHeight("100%");
         mainLayout.addComponent(tabSheet);
         mainLayout.setExpandRatio(tabSheet, 1.0f);
@@ -83,9 +120,10 @@ public class MainFormHandler extends VerticalLayout implements IFormHandler {
         tab = openedForms.get(formCacheName);
         if (tab == null) {
             AbstractListForm<T> listForm = context.getBean(AbstractListForm.class, this, aClass);
+            EntityMetadata metadata = metadataRegistry.getMetadata(aClass);
             tab = tabSheet.addTab(listForm);
-            tab.setCaption(aClass.getAnnotation(AgiEntity.class).menuCaption());
-            tab.setIcon(aClass.getAnnotation(AgiEntity.class).icon());
+            tab.setCaption(metadata.getAgiEntity().menuCaption());
+            tab.setIcon(metadata.getIcon());
             tab.setVisible(true);
             tab.setClosable(true);
             openedForms.put(formCacheName, tab);
@@ -98,13 +136,8 @@ public class MainFormHandler extends VerticalLayout implements IFormHandler {
 
     @Override
     public <T> void showAbstractElementForm(T entity, boolean isNewInstance) {
-
-        VaadinIcons icon;
-        if (entity.getClass().isAnnotationPresent(AgiEntity.class)) {
-            icon = entity.getClass().getAnnotation(AgiEntity.class).icon();
-        } else if (entity.getClass().isAnnotationPresent(AgiForm.class)) {
-            icon = entity.getClass().getAnnotation(AgiForm.class).icon();
-        } else throw new RuntimeException("Expected AGI annotation is not present");
+        EntityMetadata metadata = metadataRegistry.findMetadata(entity.getClass());
+        if (metadata == null) throw new RuntimeException("Expected AGI annotation is not present");
         final String formCacheName = generateElementCacheName(entity);
 
         TabSheet.Tab tab;
@@ -117,7 +150,7 @@ public class MainFormHandler extends VerticalLayout implements IFormHandler {
             String caption = generateElementCaption(entity, isNewInstance);
 
             tab.setCaption(caption);
-            tab.setIcon(icon);
+            tab.setIcon(metadata.getIcon());
             tab.setVisible(true);
             tab.setClosable(true);
             openedForms.put(formCacheName, tab);
@@ -127,31 +160,141 @@ public class MainFormHandler extends VerticalLayout implements IFormHandler {
         tabSheet.focus();
     }
 
-    protected <T> String generateElementCaption(T entity, boolean isNewInstance) {
-        if (!entity.getClass().isAnnotationPresent(AgiEntity.class)
-                && !entity.getClass().isAnnotationPresent(AgiForm.class))
-            throw new RuntimeException("Unacceptable class, annotation AgiEntity or AgiForm is necessary");
+    /**
+     * checks the inactive forms every agi.forms.tabs.passivate-check-seconds while the handler is attached,
+     * so the tabs left open are passivated even if no other tab gets selected
+     */
+    @Override
+    public void attach() {
+        super.attach();
+        UI ui = getUI();
+        long checkInterval = TimeUnit.SECONDS.toMillis(passivateCheckSeconds);
+        passivationCheck = agiFormScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                ui.access(() -> passivateInactiveForms(tabSheet.getSelectedTab()));
+            } catch (UIDetachedException e) {
+                log.debug("Passivation check of a detached UI is skipped");
+            }
+        }, new Date(System.currentTimeMillis() + checkInterval), checkInterval);
+    }
+
+    @Override
+    public void detach() {
+        if (passivationCheck != null) passivationCheck.cancel(false);
+        passivationCheck = null;
+        super.detach();
+    }
+
+    /**
+     * Builds the selected form again if it has been passivated, then passivates the other forms,
+     * see {@link #passivateInactiveForms}
+     */
+    protected void onFormSelected(Component form) {
+        FormState state = passivatedForms.remove(form);
+        if (state != null) {
+            form = activate(form, state);
+            if (form == null) return;
+        }
+        activeForms.put(form, System.currentTimeMillis());
+        passivateInactiveForms(form);
+    }
 
-        String caption;
-        if (entity.getClass().isAnnotationPresent(AgiEntity.class)) {
-            caption = entity.getClass().getAnnotation(AgiEntity.class).singleCaption() + ':';
+    /**
+     * Passivates the forms which have not been selected for agi.forms.tabs.passivate-after-minutes
+     * or exceed agi.forms.tabs.max-active, the least recently selected first.
+     * Forms which can't be built again (e.g. with unsaved changes) are kept
+     *
+     * @param selected the form shown to the user, never passivated
+     */
+    protected void passivateInactiveForms(Component selected) {
+        long inactiveSince = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(passivateAfterMinutes);
+        List<Map.Entry<Component, Long>> candidates = new ArrayList<>(activeForms.entrySet());
+        candidates.sort(Map.Entry.comparingByValue());
+        int activeCount = candidates.size();
+        for (Map.Entry<Component, Long> candidate : candidates) {
+            if (candidate.getKey() == selected) continue;
+            if (activeCount <= maxActiveTabs && candidate.getValue() >= inactiveSince) break;
+            if (passivate(candidate.getKey())) activeCount--;
+        }
+    }
+
+    /**
+     * replaces the components of the form by an empty layout, keeping only its {@link FormState}
+     *
+     * @return false if the form can't be built again
+     */
+    protected boolean passivate(Component form) {
+        String formCacheName = openedForms.entrySet().stream()
+                .filter(entry -> entry.getValue().getComponent() == form)
+                .map(Map.Entry::getKey)
+                .findFirst()
+                .orElse(null);
+        if (formCacheName == null) return false;
+        FormState state;
+        if (form instanceof AbstractListForm) {
+            AbstractListForm<?> listForm = (AbstractListForm<?>) form;
+            state = new FormState(formCacheName, listForm.getEntityClass(), null,
+                    listForm.getFilters(), listForm.getSortOrders());
+        } else if (form instanceof AbstractElementForm && ((AbstractElementForm<?>) form).isPassivatable()) {
+            AbstractElementForm<?> elementForm = (AbstractElementForm<?>) form;
+            state = new FormState(formCacheName, elementForm.getMetadata().getEntityClass(), elementForm.getEntityId(),
+                    Collections.emptySet(), Collections.emptyList());
+        } else return false;
+        Component placeholder = new CssLayout();
+        replaceForm(form, placeholder);
+        passivatedForms.put(placeholder, state);
+        return true;
+    }
+
+    /**
+     * @return the form built again, null if its entity has been deleted meanwhile
+     */
+    @SuppressWarnings("unchecked")
+    protected Component activate(Component placeholder, FormState state) {
+        Component form;
+        if (state.isElementForm()) {
+            Object entity = genericDaoFactory.getGenericDaoForClass(state.getEntityClass()).findById(state.getEntityId());
+            if (entity == null) {
+                Notification.show("The element has been deleted");
+                openedForms.remove(state.getFormCacheName());
+                tabSheet.removeComponent(placeholder);
+                return null;
+            }
+            AbstractElementForm<Object> elementForm = context.getBean(AbstractElementForm.class, this);
+            elementForm.init(entity, false, state.getFormCacheName());
+            form = elementForm;
         } else {
-            caption = entity.getClass().getAnnotation(AgiForm.class).caption() + ':';
+            AbstractListForm<?> listForm = context.getBean(AbstractListForm.class, this, state.getEntityClass());
+            listForm.restore(state.getFilters(), state.getSortOrders());
+            form = listForm;
+        }
+        replaceForm(placeholder, form);
+        return form;
+    }
+
+    private void replaceForm(Component oldComponent, Component newComponent) {
+        TabSheet.Tab oldTab = tabSheet.getTab(oldComponent);
+        replacing = true;
+        try {
+            tabSheet.replaceComponent(oldComponent, newComponent);
+        } finally {
+            replacing = false;
         }
+        TabSheet.Tab newTab = tabSheet.getTab(newComponent);
+        openedForms.replaceAll((name, tab) -> tab == oldTab ? newTab : tab);
+        activeForms.remove(oldComponent);
+    }
+
+    protected <T> String generateElementCaption(T entity, boolean isNewInstance) {
+        EntityMetadata metadata = metadataRegistry.findMetadata(entity.getClass());
+        if (metadata == null)
+            throw new RuntimeException("Unacceptable class, annotation AgiEntity or AgiForm is necessary");
+
+        String caption = metadata.getSingleCaption() + ':';
         if (isNewInstance) {
             caption += "new";
-        } else {
-            for (Field field : entity.getClass().getDeclaredFields()) {
-                if (field.isAnnotationPresent(Id.class)) {
-                    field.setAccessible(true);
-                    try {
-                        caption += field.get(entity).toString();
-                    } catch (IllegalAccessException e) {
-                        log.error(e.getMessage());
-                    }
-                    break;
-                }
-            }
+        } else if (metadata.getIdField() != null) {
+            caption += String.valueOf(metadata.getIdField().getValue(entity));
         }
         return caption;
     }
@@ -171,6 +314,9 @@ public class MainFormHandler extends VerticalLayout implements IFormHandler {
     }
 
     protected <T> String generateElementCacheName(T entity) {
+        EntityMetadata metadata = metadataRegistry.getMetadata(entity.getClass());
+        Object id = metadata.getIdField() == null ? null : metadata.getIdField().getValue(entity);
+        if (id != null) return DEFAULT_ELEMENT_FORM_PREFIX + metadata.getEntityClass().getCanonicalName() + ':' + id;
         return DEFAULT_ELEMENT_FORM_PREFIX + entity.getClass().getCanonicalName() + entity.hashCode();
     }
 
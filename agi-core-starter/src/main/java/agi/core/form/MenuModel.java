@@ -0,0 +1,77 @@
+package agi.core.form;
+
+import agi.core.annotations.AgiEntity;
+import agi.core.form.util.UIOrderComparator;
+import agi.core.metadata.EntityMetadataRegistry;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Main menu of the application built once on startup from {@link EntityMetadataRegistry},
+ * so it comes from {@link agi.core.metadata.AgiIndex} when the build has written one.
+ * Items are placed by {@link AgiEntity#menuPath()} and ordered by draw order, folders by their first item
+ */
+@Component
+public class MenuModel {
+
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+
+    private ImmutableList<MenuNode> items = ImmutableList.of();
+
+    @PostConstruct
+    public void init() {
+        Folder root = new Folder(null);
+        metadataRegistry.getAnnotatedClasses().stream().sorted(new UIOrderComparator()).forEach(metadata -> {
+            Folder folder = root;
+            for (String pathElement : Splitter.on('/').omitEmptyStrings().split(metadata.getMenuPath())) {
+                folder = folder.getFolder(pathElement);
+            }
+            folder.children.add(new MenuNode(metadata.getCaption(), metadata.getIcon(), metadata.getEntityClass(),
+                    ImmutableList.of()));
+        });
+        items = root.toNode().getChildren();
+    }
+
+    /**
+     * @return top level items of the menu
+     */
+    public ImmutableList<MenuNode> getItems() {
+        return items;
+    }
+
+    /**
+     * folder being built, its children are folders or built items
+     */
+    private static class Folder {
+        private final String caption;
+        private final List<Object> children = new ArrayList<>();
+
+        Folder(String caption) {
+            this.caption = caption;
+        }
+
+        Folder getFolder(String caption) {
+            for (Object child : children) {
+                if (child instanceof Folder && ((Folder) child).caption.equals(caption)) return (Folder) child;
+            }
+            Folder folder = new Folder(caption);
+            children.add(folder);
+            return folder;
+        }
+
+        MenuNode toNode() {
+            ImmutableList.Builder<MenuNode> nodes = ImmutableList.builder();
+            for (Object child : children) {
+                nodes.add(child instanceof Folder ? ((Folder) child).toNode() : (MenuNode) child);
+            }
+            return new MenuNode(caption, null, null, nodes.build());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package agi.core.form;
+
+import com.google.common.collect.ImmutableList;
+import com.vaadin.icons.VaadinIcons;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Immutable item of {@link MenuModel}: a folder of the menu path or a form of an annotated class
+ */
+@Getter
+@AllArgsConstructor
+public class MenuNode {
+
+    private final String caption;
+    private final VaadinIcons icon;
+    /**
+     * class whose form the item opens, null for folders
+     */
+    private final Class<?> targetClass;
+    private final ImmutableList<MenuNode> children;
+
+    public boolean isFolder() {
+        return targetClass == null;
+    }
+}
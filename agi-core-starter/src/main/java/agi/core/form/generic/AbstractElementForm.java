@@ -1,14 +1,11 @@
 package agi.core.form.generic;
 
-import agi.core.annotations.AgiColumnValueProvider;
-import agi.core.annotations.AgiEntity;
-import agi.core.annotations.AgiForm;
-import agi.core.annotations.Command;
 import agi.core.dao.GenericDao;
 import agi.core.dao.GenericDaoFactory;
 import agi.core.form.IFormHandler;
-import agi.core.form.util.UIOrderComparator;
-import agi.core.form.util.VaadinProvidersFactory;
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
 import com.vaadin.data.Binder;
 import com.vaadin.data.HasValue;
 import com.vaadin.icons.VaadinIcons;
@@ -24,14 +21,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
 
-import java.lang.reflect.AnnotatedElement;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.util.LinkedList;
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Set;
 
 @org.springframework.stereotype.Component
 @Scope("prototype")
@@ -47,10 +42,17 @@ public class AbstractElementForm<T> extends VerticalLayout {
     protected Layout defaultControlPanel;
     protected IFormHandler formHandler;
     protected String formCachedName;
+    protected boolean isNewInstance;
     @Autowired
     GenericFieldGenerator genericFieldGenerator;
     @Autowired
     GenericDaoFactory genericDaoFactory;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    FormBlueprints formBlueprints;
+    protected EntityMetadata metadata;
+    protected Map<FieldMetadata, Component> pictureComponents = new HashMap<>();
 
     public AbstractElementForm(IFormHandler formHandler) {
         this.formHandler = formHandler;
@@ -58,64 +60,58 @@ public class AbstractElementForm<T> extends VerticalLayout {
 
     public void init(T entity, boolean isNewInstance, String formCachedName) {
         this.formCachedName = formCachedName;
+        this.isNewInstance = isNewInstance;
         removeAllComponents();
+        discardUploadedPictures();
+        pictureComponents.clear();
         this.entity = entity;
-        binder = new Binder(entity.getClass());
+        this.metadata = metadataRegistry.getMetadata(entity.getClass());
+        binder = new Binder<>();
         initControlPanel(binder);
         buildFormFields(entity);
-        binder.bindInstanceFields(entity);
         if (!isNewInstance) binder.readBean(entity);
     }
 
     protected void buildFormFields(T entity) {
-        Class clazz = entity.getClass();
-        Field[] fieldsArray = clazz.getDeclaredFields();
-        Method[] methodsArray = clazz.getDeclaredMethods();
-        LinkedList<AnnotatedElement> elementLinkedList = createOrderedElementsList(Stream.concat(
-                Stream.of(fieldsArray).filter(f -> !f.isAnnotationPresent(Autowired.class) && (f.getModifiers() & Modifier.STATIC) == 0),
-                Stream.of(methodsArray).filter(m -> m.isAnnotationPresent(AgiColumnValueProvider.class))));
-
-        for (AnnotatedElement element : elementLinkedList) {
-            if (element instanceof Field) {
-                Field field = (Field) element;
-                Component component = genericFieldGenerator.getComponentByFieldAndBind(field, binder);
+        for (FormBlueprint.ElementBlueprint element : formBlueprints.getBlueprint(entity.getClass()).getElements()) {
+            if (element.getField() != null) {
+                FieldMetadata field = element.getField();
+                Component component = genericFieldGenerator.createComponent(field, element.getComponentFactory());
                 if (component == null) continue;
-                if (field.isAnnotationPresent(javax.persistence.Id.class)) {
+                if (element.isBound()) genericFieldGenerator.bind(field, element.getConverter(), component, binder);
+                if (field.isId()) {
                     ((HasValue) component).setReadOnly(true);
                 }
+                if (field.isPicture()) {
+                    pictureComponents.put(field, component);
+                    genericFieldGenerator.showPicture(field, component, entity);
+                }
                 addComponent(component);
                 component.setWidth(40f, Unit.PERCENTAGE);
-            } else if (element instanceof Method) {
-                Method method = (Method) element;
-                if ((method.getModifiers() & Modifier.STATIC) == 0) continue;
+            } else {
                 TextField textField = new TextField();
-                genericFieldGenerator.makeUpCaptionForMethodProvidedComponent(method, textField);
-                textField.setValue(String.valueOf(Objects.requireNonNull(VaadinProvidersFactory.getValueProvider(method)).apply(entity)));
+                genericFieldGenerator.makeUpCaptionForMethodProvidedComponent(element.getMethod(), textField);
+                textField.setValue(String.valueOf(element.getValueProvider().apply(entity)));
                 textField.setReadOnly(true);
                 addComponent(textField);
             }
         }
     }
 
-    protected LinkedList<AnnotatedElement> createOrderedElementsList(Stream<AnnotatedElement> annotatedElements) {
-        return annotatedElements.sorted(new UIOrderComparator()).collect(Collectors.toCollection(LinkedList::new));
-    }
-
     protected void initControlPanel(Binder<T> binder) {
         defaultControlPanel = new HorizontalLayout();
         MenuBar menuBar = new MenuBar();
-        if (entity.getClass().isAnnotationPresent(AgiEntity.class)) {
+        if (metadata.isEntity()) {
             createSaveButton(binder, menuBar);
             createReloadButton(binder, menuBar);
-        } else if (entity.getClass().isAnnotationPresent(AgiForm.class)) {
-            Stream.of(entity.getClass().getDeclaredMethods())
-                    .filter(m -> m.isAnnotationPresent(Command.class))
-                    .forEach(method -> menuBar.addItem(method.getAnnotation(Command.class).caption(),
-                            method.getAnnotation(Command.class).icon(),
+        } else {
+            metadata.getCommands()
+                    .forEach(method -> menuBar.addItem(method.getCaption(),
+                            method.getCommand().icon(),
                             command -> {
                                 try {
                                     binder.writeBean(entity);
-                                    method.invoke(entity, null);
+                                    method.getMethod().invoke(entity);
                                     binder.readBean(entity);
                                 } catch (Exception e) {
                                     log.error(e.getMessage(), e);
@@ -133,6 +129,8 @@ public class AbstractElementForm<T> extends VerticalLayout {
                     GenericDao genericDao = genericDaoFactory.getGenericDaoForClass(entity.getClass());
                     genericDao.refresh(entity);
                     binder.readBean(entity);
+                    pictureComponents.forEach((field, component) ->
+                            genericFieldGenerator.showPicture(field, component, entity));
                 });
     }
 
@@ -142,10 +140,16 @@ public class AbstractElementForm<T> extends VerticalLayout {
                 VaadinIcons.CHECK,
                 (MenuBar.Command) event -> {
                     try {
+                        Map<String, Object> valuesBefore = getFieldValues();
                         binder.writeBean(entity);
                         GenericDao genericDao = genericDaoFactory.getGenericDaoForClass(entity.getClass());
-                        entity = (T) genericDao.save(entity);
+                        entity = (T) genericDao.save(entity, isNewInstance, getChangedFields(valuesBefore),
+                                getUploadedPictures());
+                        discardUploadedPictures();
+                        isNewInstance = false;
                         binder.readBean(entity); //reload autogenerated fields
+                        pictureComponents.forEach((field, component) ->
+                                genericFieldGenerator.showPicture(field, component, entity));
                         formHandler.refreshElementCaption(entity, formCachedName);
                     } catch (Exception e) {
                         Notification.show("Error", "Error while saving element", Notification.Type.ERROR_MESSAGE);
@@ -154,5 +158,61 @@ public class AbstractElementForm<T> extends VerticalLayout {
                 });
     }
 
+    /**
+     * @return the form can be dropped and built again from the database: a saved entity without unsaved changes
+     */
+    public boolean isPassivatable() {
+        return metadata.isEntity() && !isNewInstance && metadata.getIdField() != null
+                && !binder.hasChanges() && getUploadedPictures().isEmpty();
+    }
+
+    public EntityMetadata getMetadata() {
+        return metadata;
+    }
+
+    public Object getEntityId() {
+        return metadata.getIdField() == null ? null : metadata.getIdField().getValue(entity);
+    }
+
+    /**
+     * @return temp files of the pictures uploaded since the last save
+     */
+    protected Map<FieldMetadata, File> getUploadedPictures() {
+        Map<FieldMetadata, File> pictures = new HashMap<>();
+        pictureComponents.forEach((field, component) -> {
+            File file = genericFieldGenerator.getPictureUpload(component).getFile();
+            if (file != null) pictures.put(field, file);
+        });
+        return pictures;
+    }
+
+    protected void discardUploadedPictures() {
+        pictureComponents.values().forEach(component -> genericFieldGenerator.getPictureUpload(component).discard());
+    }
+
+    @Override
+    public void detach() {
+        super.detach();
+        discardUploadedPictures();
+    }
+
+    protected Map<String, Object> getFieldValues() {
+        Map<String, Object> values = new HashMap<>();
+        metadata.getFields().forEach(field -> values.put(field.getName(), field.getValue(entity)));
+        return values;
+    }
+
+    /**
+     * @return fields which the binder has written with a different value
+     */
+    protected Set<String> getChangedFields(Map<String, Object> valuesBefore) {
+        Set<String> changedFields = new HashSet<>();
+        for (FieldMetadata field : metadata.getFields()) {
+            if (!Objects.deepEquals(valuesBefore.get(field.getName()), field.getValue(entity))) {
+                changedFields.add(field.getName());
+            }
+        }
+        return changedFields;
+    }
 
 }
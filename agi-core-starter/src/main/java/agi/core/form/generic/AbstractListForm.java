@@ -1,32 +1,54 @@
 package agi.core.form.generic;
 
-import agi.core.annotations.AgiColumnValueProvider;
-import agi.core.annotations.Filtered;
-import agi.core.annotations.LinkedObject;
-import agi.core.annotations.RepresentationResolver;
+import agi.core.dao.AsyncGenericBackendDataProvider;
 import agi.core.dao.CompareType;
 import agi.core.dao.CriteriaFilter;
-import agi.core.dao.GenericBackendDataProvider;
+import agi.core.dao.GenericBackendDataProviderFactory;
+import agi.core.dao.GenericDao;
 import agi.core.dao.GenericDaoFactory;
+import agi.core.dao.ProjectionColumns;
+import agi.core.dao.QueryTemplateCache;
 import agi.core.form.IFormHandler;
+import agi.core.form.util.ProgressDialog;
 import agi.core.form.util.VaadinProvidersFactory;
-import com.google.common.collect.ImmutableSet;
+import agi.core.io.EntityExporter;
+import agi.core.io.EntityImporter;
+import agi.core.io.ExportFormat;
+import agi.core.io.ImportFormat;
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import agi.core.metadata.MethodMetadata;
+import agi.core.picture.PictureResources;
+import agi.core.picture.ThumbnailCache;
 import com.vaadin.data.HasValue;
 import com.vaadin.data.provider.ConfigurableFilterDataProvider;
 import com.vaadin.data.provider.DataProvider;
+import com.vaadin.data.provider.GridSortOrder;
 import com.vaadin.data.provider.QuerySortOrder;
 import com.vaadin.icons.VaadinIcons;
+import com.vaadin.server.FileDownloader;
+import com.vaadin.server.Resource;
 import com.vaadin.ui.*;
+import com.vaadin.ui.renderers.ImageRenderer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Scope;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 
@@ -41,18 +63,47 @@ public class AbstractListForm<T> extends VerticalLayout {
     protected String OPEN_TEXT;
     @Value("${agi.forms.list.delete}")
     protected String DELETE_TEXT;
+    @Value("${agi.forms.list.import}")
+    protected String IMPORT_TEXT;
+    @Value("${agi.forms.list.export}")
+    protected String EXPORT_TEXT;
     protected IFormHandler formHandler;
     protected Grid<T> grid;
     protected Class<T> aClass;
     protected HorizontalLayout filterLayout;
-    protected Set<CriteriaFilter> filterSet = new HashSet<>();
+    @Value("${agi.forms.list.filter-quiet-period-ms:400}")
+    protected int filterQuietPeriodMillis;
+    @Value("${agi.import.max-upload-mb:50}")
+    protected long maxUploadMegabytes;
+    protected FilterPipeline filterPipeline;
     protected DataProvider<T, Set<CriteriaFilter>> gridDataProvider;
     protected ConfigurableFilterDataProvider<T, Void, Set<CriteriaFilter>> wrapper;
     @Autowired
     GenericFieldGenerator genericFieldGenerator;
     @Autowired
     GenericDaoFactory genericDaoFactory;
+    @Autowired
+    GenericBackendDataProviderFactory dataProviderFactory;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    TaskExecutor agiTaskExecutor;
+    @Autowired
+    EntityImporter entityImporter;
+    @Autowired
+    EntityExporter entityExporter;
+    @Autowired
+    ThumbnailCache thumbnailCache;
+    @Autowired
+    PictureResources pictureResources;
+    @Autowired
+    QueryTemplateCache queryTemplateCache;
+    protected EntityMetadata metadata;
     List<Class<?>> supportedFilters;
+    /**
+     * filter components by field names
+     */
+    protected Map<String, HasValue<Object>> filterComponents = new HashMap<>();
 
     public AbstractListForm(IFormHandler formHandler, Class aClass) {
         this.formHandler = formHandler;
@@ -62,6 +113,7 @@ public class AbstractListForm<T> extends VerticalLayout {
 
     @PostConstruct
     protected void init() {
+        metadata = metadataRegistry.getMetadata(aClass);
         fillSupportedFilters();
         initializeGridDataProvider();
         createCommandPanel();
@@ -87,9 +139,15 @@ public class AbstractListForm<T> extends VerticalLayout {
 
     @SuppressWarnings("unchecked")
     private void initializeGridDataProvider() {
-        gridDataProvider = new GenericBackendDataProvider<T>(aClass, genericDaoFactory.getGenericDaoForClass(aClass));
+        gridDataProvider = dataProviderFactory.getGridDataProvider(aClass);
 
         wrapper = gridDataProvider.withConfigurableFilter();
+        filterPipeline = new FilterPipeline(wrapper, filterQuietPeriodMillis);
+        if (gridDataProvider instanceof AsyncGenericBackendDataProvider) {
+            AsyncGenericBackendDataProvider<T> asyncDataProvider = (AsyncGenericBackendDataProvider<T>) gridDataProvider;
+            asyncDataProvider.setFilterGeneration(filterPipeline::getGeneration);
+            asyncDataProvider.setErrorHandler(e -> handleError("Error is appeared while loading elements", e));
+        }
     }
 
     private void createFilterLayout() {
@@ -104,7 +162,7 @@ public class AbstractListForm<T> extends VerticalLayout {
         grid.setHeightUndefined();
         grid.setWidthUndefined();
         grid.setSizeFull();
-        grid.setSelectionMode(Grid.SelectionMode.SINGLE);
+        grid.setSelectionMode(metadata.isMultiSelect() ? Grid.SelectionMode.MULTI : Grid.SelectionMode.SINGLE);
         grid.setDataProvider(wrapper);
 
         createGridColumns();
@@ -113,70 +171,118 @@ public class AbstractListForm<T> extends VerticalLayout {
 
     @SuppressWarnings("unchecked")
     protected void createFilters() {
-        for (Field field : aClass.getDeclaredFields()) {
-            if (!field.isAnnotationPresent(Filtered.class) ||
-                    !(supportedFilters.contains(field.getType()) || field.isAnnotationPresent(LinkedObject.class)))
+        for (FieldMetadata field : metadata.getFilteredFields()) {
+            if (!(supportedFilters.contains(field.getType()) || field.isLinkedObject()))
                 continue;
             com.vaadin.ui.Component componentByField = genericFieldGenerator.getComponentByField(field);
             if (componentByField == null) continue;
-            ((HasValue) componentByField).addValueChangeListener((HasValue.ValueChangeListener) event -> {
-                CriteriaFilter criteriaFilter = new CriteriaFilter(field.getType(), field.getName(),
-                        event.getValue(), getFieldCompareType(field));
-                filterSet.remove(criteriaFilter);
-                filterSet.add(criteriaFilter);
-                wrapper.setFilter(filterSet);
-            });
+            filterPipeline.debounce(componentByField);
+            filterComponents.put(field.getName(), (HasValue<Object>) componentByField);
+            ((HasValue) componentByField).addValueChangeListener((HasValue.ValueChangeListener) event ->
+                    filterPipeline.update(new CriteriaFilter(field.getType(), field.getName(),
+                            event.getValue(), getFieldCompareType(field))));
             filterLayout.addComponent(componentByField);
         }
     }
 
-    private CompareType getFieldCompareType(Field field) {
+    private CompareType getFieldCompareType(FieldMetadata field) {
         if (field.getType() == String.class) return CompareType.LIKE;
         return CompareType.EQUALS;
     }
 
     protected void createGridColumns() {
         grid.removeAllColumns();
-        for (Field field : aClass.getDeclaredFields()) {
-            if (!isIgnoredType(field.getType())) {
-                Grid.Column<T, ?> tColumn;
-                if (field.getType().isAnnotationPresent(RepresentationResolver.class)) {
-                    tColumn = createColumnWithRepresentationResolver(field);
-                } else {
-                    tColumn = grid.addColumn(field.getName());
-                }
-                genericFieldGenerator.makeUpCaptionForField(field, tColumn);
+        ProjectionColumns projectionColumns = metadata.isProjection() ? queryTemplateCache.getProjectionColumns(aClass) : null;
+        for (int i = 0; i < metadata.getGridColumns().size(); i++) {
+            FieldMetadata field = metadata.getGridColumns().get(i);
+            Grid.Column<T, ?> tColumn;
+            if (projectionColumns != null && projectionColumns.isProjectedLink(i)) {
+                tColumn = createProjectedLinkColumn(field, projectionColumns.getLinkedMetadata(i).getSearchField());
+            } else if (field.isRepresentationResolverPresent()) {
+                tColumn = createColumnWithRepresentationResolver(field);
+            } else {
+                tColumn = grid.addColumn(field::getValue);
+                tColumn.setId(field.getName()).setSortProperty(field.getName());
             }
+            genericFieldGenerator.makeUpCaptionForField(field, tColumn);
         }
-        for (Method method : aClass.getDeclaredMethods()) {
-            if (method.isAnnotationPresent(AgiColumnValueProvider.class)) {
-                Grid.Column<T, ?> tColumn = createColumnWithAgiValueProvider(method);
-                genericFieldGenerator.makeUpCaptionForMethodProvidedColumn(method, tColumn);
-            }
+        for (FieldMetadata field : metadata.getPictureFields()) {
+            Grid.Column<T, ?> tColumn = createThumbnailColumn(field);
+            genericFieldGenerator.makeUpCaptionForField(field, tColumn);
         }
+        if (!metadata.getPictureFields().isEmpty()) {
+            grid.setBodyRowHeight(thumbnailCache.getThumbnailSize() + 4);
+        }
+        for (MethodMetadata method : metadata.getColumnValueProviders()) {
+            Grid.Column<T, ?> tColumn = createColumnWithAgiValueProvider(method);
+            genericFieldGenerator.makeUpCaptionForMethodProvidedColumn(method, tColumn);
+        }
+    }
+
+    /**
+     * rows carry no picture bytes, the browser loads the thumbnail by its URL
+     */
+    protected Grid.Column<T, ?> createThumbnailColumn(FieldMetadata field) {
+        Grid.Column<T, Resource> column = grid.addColumn(
+                row -> pictureResources.getResource(metadata, field, row, true), new ImageRenderer<>());
+        column.setSortable(false);
+        return column;
     }
 
-    private Grid.Column<T, ?> createColumnWithAgiValueProvider(Method method) {
-        Grid.Column<T, String> column = grid.addColumn(VaadinProvidersFactory.getValueProvider(method));
+    private Grid.Column<T, ?> createColumnWithAgiValueProvider(MethodMetadata method) {
+        Grid.Column<T, String> column = grid.addColumn(VaadinProvidersFactory.getValueProvider(method.getMethod()));
         return column;
     }
 
-    protected Grid.Column<T, ?> createColumnWithRepresentationResolver(Field field) {
-        String methodQualifier = field.getType().getAnnotation(RepresentationResolver.class).value();
-        Grid.Column<T, String> column = grid.addColumn(VaadinProvidersFactory.getValueProvider(field, methodQualifier));
+    protected Grid.Column<T, ?> createColumnWithRepresentationResolver(FieldMetadata field) {
+        Grid.Column<T, String> column = grid.addColumn(VaadinProvidersFactory.getValueProvider(field));
+        column.setId(field.getName());
         column.setSortOrderProvider(direction -> Stream.of(new QuerySortOrder(field.getName(), direction)));
         column.setSortable(true);
         return column;
     }
 
-    protected boolean isIgnoredType(Class<?> type) {
-        Set<Class> ignoredClasses = ImmutableSet.of(Map.class, List.class, Set.class);
-        for (Class iclass : ignoredClasses) {
-            if (type.isAssignableFrom(iclass)) {
-                return true;
-            }
+    /**
+     * projection rows hold the linked objects by id and search field only, see {@link ProjectionColumns}
+     */
+    protected Grid.Column<T, ?> createProjectedLinkColumn(FieldMetadata field, FieldMetadata searchField) {
+        Grid.Column<T, String> column = grid.addColumn(VaadinProvidersFactory.getValueProvider(field, searchField));
+        column.setId(field.getName());
+        column.setSortOrderProvider(direction -> Stream.of(new QuerySortOrder(field.getName(), direction)));
+        column.setSortable(true);
+        return column;
+    }
+
+    public Class<T> getEntityClass() {
+        return aClass;
+    }
+
+    public Set<CriteriaFilter> getFilters() {
+        return filterPipeline.getFilters();
+    }
+
+    /**
+     * @return sorting of the grid by column ids, i.e. field names
+     */
+    public List<QuerySortOrder> getSortOrders() {
+        return grid.getSortOrder().stream()
+                .filter(order -> order.getSorted().getId() != null)
+                .map(order -> new QuerySortOrder(order.getSorted().getId(), order.getDirection()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * puts the filters into the filter components and sorts the grid as it was
+     */
+    public void restore(Set<CriteriaFilter> filters, List<QuerySortOrder> sortOrders) {
+        for (CriteriaFilter filter : filters) {
+            HasValue<Object> component = filterComponents.get(filter.getFieldName());
+            if (component != null && filter.getFieldValue() != null) component.setValue(filter.getFieldValue());
         }
-        return false;
+        grid.setSortOrder(sortOrders.stream()
+                .filter(order -> grid.getColumn(order.getSorted()) != null)
+                .map(order -> new GridSortOrder<>(grid.getColumn(order.getSorted()), order.getDirection()))
+                .collect(Collectors.toList()));
     }
 
     protected void createCommandPanel() {
@@ -184,6 +290,8 @@ public class AbstractListForm<T> extends VerticalLayout {
         createMenuButtonNew(commandPanel);
         createMenuButtonOpen(commandPanel);
         createMenuButtonRemove(commandPanel);
+        createMenuButtonImport(commandPanel);
+        createMenuButtonExport(commandPanel);
         addComponent(commandPanel);
     }
 
@@ -192,16 +300,15 @@ public class AbstractListForm<T> extends VerticalLayout {
                 event -> {
                     if (grid.getSelectedItems().isEmpty()) return;
 
-                    Set<T> selectedItems = grid.getSelectedItems();
+                    Set<T> selectedItems = new HashSet<>(grid.getSelectedItems());
                     final Label label = new Label(String.format("Do you really want to delete %d elements?",
-                            grid.getSelectedItems().size()));
+                            selectedItems.size()));
                     Window dialog = new Window();
                     VerticalLayout verticalLayout = new VerticalLayout();
                     verticalLayout.addComponent(label);
                     verticalLayout.addComponent(new Button("Yes", event1 -> {
-                        selectedItems.forEach(genericDaoFactory.getGenericDaoForClass(aClass)::delete);
-                        this.grid.getDataProvider().refreshAll();
                         dialog.close();
+                        deleteItems(selectedItems);
                     }));
                     verticalLayout.addComponent(new Button("No", event1 -> {
                         dialog.close();
@@ -213,6 +320,145 @@ public class AbstractListForm<T> extends VerticalLayout {
                 });
     }
 
+    /**
+     * deletes the items by id in one background transaction, the grid is refreshed once at the end
+     */
+    @SuppressWarnings("unchecked")
+    protected void deleteItems(Set<T> items) {
+        GenericDao<T> genericDao = genericDaoFactory.getGenericDaoForClass(aClass);
+        if (metadata.getIdField() == null) {
+            items.forEach(genericDao::delete);
+            grid.getDataProvider().refreshAll();
+            return;
+        }
+        List<Object> ids = items.stream().map(metadata.getIdField()::getValue).collect(Collectors.toList());
+        ProgressDialog progressDialog = new ProgressDialog(getUI(), DELETE_TEXT, ids.size());
+        progressDialog.open();
+        try {
+            agiTaskExecutor.execute(() -> {
+                try {
+                    genericDao.deleteAllById(ids, progressDialog::update);
+                    progressDialog.finish(() -> {
+                        grid.deselectAll();
+                        grid.getDataProvider().refreshAll();
+                    });
+                } catch (RuntimeException e) {
+                    progressDialog.finish(() -> handleError("Error is appeared while deleting elements", e));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            progressDialog.finish(() -> handleError("The server is busy, try to delete the elements later", e));
+        }
+    }
+
+    /**
+     * the uploaded file is stored to a temporary file and imported in background,
+     * uploads larger than agi.import.max-upload-mb are interrupted
+     */
+    protected void createMenuButtonImport(MenuBar commandPanel) {
+        commandPanel.addItem(IMPORT_TEXT, VaadinIcons.UPLOAD,
+                event -> {
+                    Window dialog = new Window(IMPORT_TEXT);
+                    File[] uploadedFile = new File[1];
+                    Upload upload = new Upload(null, (Upload.Receiver) (fileName, mimeType) -> {
+                        try {
+                            uploadedFile[0] = File.createTempFile("agi-import", ".tmp");
+                            return new FileOutputStream(uploadedFile[0]);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    upload.setButtonCaption(IMPORT_TEXT);
+                    long maxUploadBytes = maxUploadMegabytes * 1024 * 1024;
+                    boolean[] tooLarge = {false};
+                    upload.addStartedListener(startedEvent -> {
+                        tooLarge[0] = startedEvent.getContentLength() > maxUploadBytes;
+                        if (tooLarge[0]) upload.interruptUpload();
+                    });
+                    upload.addProgressListener((readBytes, contentLength) -> {
+                        if (readBytes > maxUploadBytes && !tooLarge[0]) {
+                            tooLarge[0] = true;
+                            upload.interruptUpload();
+                        }
+                    });
+                    upload.addSucceededListener(succeededEvent -> {
+                        dialog.close();
+                        importFile(uploadedFile[0], ImportFormat.byFileName(succeededEvent.getFilename()));
+                    });
+                    upload.addFailedListener(failedEvent -> {
+                        if (uploadedFile[0] != null) uploadedFile[0].delete();
+                        if (tooLarge[0]) {
+                            Notification.show(String.format("The file is larger than %d MB", maxUploadMegabytes),
+                                    Notification.Type.ERROR_MESSAGE);
+                        } else {
+                            handleError("Error is appeared while uploading file", failedEvent.getReason());
+                        }
+                    });
+                    dialog.setContent(new VerticalLayout(upload));
+                    dialog.setModal(true);
+                    dialog.center();
+                    getUI().addWindow(dialog);
+                });
+    }
+
+    protected void importFile(File file, ImportFormat format) {
+        ProgressDialog progressDialog = new ProgressDialog(getUI(), IMPORT_TEXT, 0);
+        progressDialog.open();
+        try {
+            agiTaskExecutor.execute(() -> {
+                try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+                    int imported = entityImporter.importEntities(aClass, inputStream, format, progressDialog::update);
+                    progressDialog.finish(() -> {
+                        grid.getDataProvider().refreshAll();
+                        Notification.show(String.format("%d elements are imported", imported));
+                    });
+                } catch (EntityImporter.ImportException e) {
+                    progressDialog.finish(() -> {
+                        grid.getDataProvider().refreshAll();
+                        handleError(String.format("Error is appeared while importing file, %d elements are imported, "
+                                + "the import is stopped at the row %d", e.getImported(), e.getStoppedAtRow()), e);
+                    });
+                } catch (IOException | RuntimeException e) {
+                    progressDialog.finish(() -> {
+                        grid.getDataProvider().refreshAll();
+                        handleError("Error is appeared while importing file", e);
+                    });
+                } finally {
+                    file.delete();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            file.delete();
+            progressDialog.finish(() -> handleError("The server is busy, try to import the file later", e));
+        }
+    }
+
+    /**
+     * exports the rows matching the current filters in the current sort order
+     */
+    protected void createMenuButtonExport(MenuBar commandPanel) {
+        commandPanel.addItem(EXPORT_TEXT, VaadinIcons.DOWNLOAD,
+                event -> {
+                    Set<CriteriaFilter> exportedFilters = filterPipeline.getFilters();
+                    List<QuerySortOrder> sortOrders = grid.getSortOrder().stream()
+                            .flatMap(order -> order.getSorted().getSortOrder(order.getDirection()))
+                            .collect(Collectors.toList());
+                    Window dialog = new Window(EXPORT_TEXT);
+                    HorizontalLayout buttons = new HorizontalLayout();
+                    for (ExportFormat format : ExportFormat.values()) {
+                        Button button = new Button(format.name());
+                        new FileDownloader(entityExporter.getStreamResource(aClass, exportedFilters, sortOrders, format))
+                                .extend(button);
+                        button.addClickListener(clickEvent -> dialog.close());
+                        buttons.addComponent(button);
+                    }
+                    dialog.setContent(new VerticalLayout(buttons));
+                    dialog.setModal(true);
+                    dialog.center();
+                    getUI().addWindow(dialog);
+                });
+    }
+
     protected void createMenuButtonOpen(MenuBar commandPanel) {
         commandPanel.addItem(OPEN_TEXT, VaadinIcons.FOLDER_OPEN,
                 event -> {
@@ -234,8 +480,21 @@ public class AbstractListForm<T> extends VerticalLayout {
                 });
     }
 
+    /**
+     * grid items are kept by the page cache and may hold only the grid columns,
+     * so an existing item is reloaded before it is bound to an element form
+     */
+    @SuppressWarnings("unchecked")
     protected void openAbstractElementForm(T item, boolean isNewInstance) {
         try {
+            if (!isNewInstance && metadata.getIdField() != null) {
+                item = (T) genericDaoFactory.getGenericDaoForClass(aClass).findById(metadata.getIdField().getValue(item));
+                if (item == null) {
+                    Notification.show("The element is already deleted");
+                    grid.getDataProvider().refreshAll();
+                    return;
+                }
+            }
             formHandler.showAbstractElementForm(item, isNewInstance);
         } catch (NoSuchFieldException | IllegalAccessException e) {
             handleError("Error is appeared while creating abstract element form", e);
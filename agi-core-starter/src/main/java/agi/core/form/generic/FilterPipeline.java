@@ -0,0 +1,68 @@
+package agi.core.form.generic;
+
+import agi.core.dao.CriteriaFilter;
+import agi.core.dao.QuerySignature;
+import com.google.common.collect.ImmutableSet;
+import com.vaadin.data.provider.ConfigurableFilterDataProvider;
+import com.vaadin.ui.AbstractTextField;
+import com.vaadin.ui.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Filter updates of a list form.
+ * Text filters report their value after a quiet period instead of every keystroke,
+ * changes which don't change the query (e.g. a typed and erased character) are dropped,
+ * the data provider gets an immutable snapshot of the filters, so a query in progress
+ * never sees the filters of a newer update. All changes made during one request
+ * are evaluated by a single count and fetch when the grid is sent to the client
+ */
+public class FilterPipeline {
+
+    private final ConfigurableFilterDataProvider<?, Void, Set<CriteriaFilter>> dataProvider;
+    private final int quietPeriodMillis;
+    private final Set<CriteriaFilter> pendingFilters = new HashSet<>();
+    private QuerySignature appliedSignature = QuerySignature.of(ImmutableSet.of());
+    private volatile long generation;
+
+    public FilterPipeline(ConfigurableFilterDataProvider<?, Void, Set<CriteriaFilter>> dataProvider, int quietPeriodMillis) {
+        this.dataProvider = dataProvider;
+        this.quietPeriodMillis = quietPeriodMillis;
+    }
+
+    /**
+     * text fields send their value to the server when the user stops typing for the quiet period,
+     * agi.forms.list.filter-quiet-period-ms replaces the timeout of the default {@link com.vaadin.shared.ui.ValueChangeMode#LAZY} mode
+     */
+    public void debounce(Component filterComponent) {
+        if (filterComponent instanceof AbstractTextField) {
+            ((AbstractTextField) filterComponent).setValueChangeTimeout(quietPeriodMillis);
+        }
+    }
+
+    public void update(CriteriaFilter filter) {
+        pendingFilters.remove(filter);
+        pendingFilters.add(filter);
+        QuerySignature signature = QuerySignature.of(pendingFilters);
+        if (signature.equals(appliedSignature)) return;
+        appliedSignature = signature;
+        generation++;
+        dataProvider.setFilter(ImmutableSet.copyOf(pendingFilters));
+    }
+
+    /**
+     * @return snapshot of the applied filters
+     */
+    public Set<CriteriaFilter> getFilters() {
+        return ImmutableSet.copyOf(pendingFilters);
+    }
+
+    /**
+     * incremented by every applied update, results of older generations are stale and are not pushed to the grid,
+     * see {@link agi.core.dao.AsyncGenericBackendDataProvider#setFilterGeneration}
+     */
+    public long getGeneration() {
+        return generation;
+    }
+}
@@ -0,0 +1,48 @@
+package agi.core.form.generic;
+
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.FieldMetadata;
+import agi.core.metadata.MethodMetadata;
+import com.vaadin.data.Converter;
+import com.vaadin.data.ValueProvider;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Element form of a class resolved once by {@link FormBlueprints}: the elements in draw order
+ * with their component factories, converters and value providers.
+ * Opening a form only instantiates the components and binds them
+ */
+@Getter
+@AllArgsConstructor
+public class FormBlueprint {
+
+    private final EntityMetadata metadata;
+    private final List<ElementBlueprint> elements;
+
+    /**
+     * a field with its component factory or a static method shown in a read-only text field
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class ElementBlueprint {
+        /**
+         * null for a method
+         */
+        private final FieldMetadata field;
+        private final Function<FieldMetadata, com.vaadin.ui.Component> componentFactory;
+        /**
+         * the value is bound by the binder, through the converter if it isn't null
+         */
+        private final boolean bound;
+        private final Converter<String, ?> converter;
+        /**
+         * null for a field
+         */
+        private final MethodMetadata method;
+        private final ValueProvider<Object, ?> valueProvider;
+    }
+}
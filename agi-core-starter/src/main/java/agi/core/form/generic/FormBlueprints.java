@@ -0,0 +1,62 @@
+package agi.core.form.generic;
+
+import agi.core.form.util.VaadinProvidersFactory;
+import agi.core.metadata.ElementMetadata;
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import agi.core.metadata.MethodMetadata;
+import com.google.common.collect.ImmutableList;
+import com.vaadin.data.ValueProvider;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * {@link FormBlueprint}s by class, built on the first opening of an element form of the class
+ */
+@Slf4j
+@Component
+public class FormBlueprints {
+
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    GenericFieldGenerator genericFieldGenerator;
+
+    private final Map<Class<?>, FormBlueprint> blueprints = new ConcurrentHashMap<>();
+
+    public FormBlueprint getBlueprint(Class<?> aClass) {
+        EntityMetadata metadata = metadataRegistry.getMetadata(aClass);
+        return blueprints.computeIfAbsent(metadata.getEntityClass(), annotatedClass -> build(metadata));
+    }
+
+    protected FormBlueprint build(EntityMetadata metadata) {
+        ImmutableList.Builder<FormBlueprint.ElementBlueprint> elements = ImmutableList.builder();
+        for (ElementMetadata element : metadata.getOrderedElements()) {
+            if (element instanceof FieldMetadata) {
+                FieldMetadata field = (FieldMetadata) element;
+                Function<FieldMetadata, com.vaadin.ui.Component> factory = genericFieldGenerator.getComponentFactory(field);
+                if (factory == null) {
+                    log.error("Field {} of {} is not shown: not implemented cast for {}", field.getName(),
+                            metadata.getName(), field.getType().getCanonicalName());
+                    continue;
+                }
+                boolean bound = genericFieldGenerator.isBound(field);
+                elements.add(new FormBlueprint.ElementBlueprint(field, factory, bound,
+                        bound ? genericFieldGenerator.getConverter(field) : null, null, null));
+            } else if (element instanceof MethodMetadata) {
+                MethodMetadata method = (MethodMetadata) element;
+                if (!method.isStaticMethod()) continue;
+                ValueProvider<Object, ?> valueProvider = VaadinProvidersFactory.getValueProvider(method.getMethod());
+                if (valueProvider == null) continue;
+                elements.add(new FormBlueprint.ElementBlueprint(null, null, false, null, method, valueProvider));
+            }
+        }
+        return new FormBlueprint(metadata, elements.build());
+    }
+}
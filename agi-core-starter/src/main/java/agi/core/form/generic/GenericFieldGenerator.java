@@ -1,204 +1,227 @@
 package agi.core.form.generic;
 
-import agi.core.annotations.*;
-import agi.core.dao.CompareType;
-import agi.core.dao.CriteriaFilter;
-import agi.core.dao.GenericBackendDataProvider;
 import agi.core.dao.GenericDaoFactory;
-import agi.core.form.util.VaadinProvidersFactory;
-import com.google.common.collect.ImmutableSet;
+import agi.core.dao.LinkedObjectLookup;
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import agi.core.metadata.MethodMetadata;
+import agi.core.picture.PictureResources;
+import agi.core.picture.PictureUpload;
 import com.vaadin.data.Binder;
+import com.vaadin.data.Converter;
 import com.vaadin.data.HasValue;
 import com.vaadin.data.converter.StringToDoubleConverter;
 import com.vaadin.data.converter.StringToFloatConverter;
 import com.vaadin.data.converter.StringToLongConverter;
-import com.vaadin.server.SerializableFunction;
+import com.vaadin.server.FileResource;
 import com.vaadin.ui.*;
-import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.io.ByteArrayOutputStream;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.function.Function;
 
 @Component
 @Slf4j
 public class GenericFieldGenerator {
     @Autowired
     GenericDaoFactory genericDaoFactory;
+    @Autowired
+    LinkedObjectLookup linkedObjectLookup;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    PictureResources pictureResources;
     @Value("${agi.forms.element.enum-null-selection}")
     private String EMPTY_ENUM_TEXT;
+    @Value("${agi.forms.element.picture-too-large}")
+    private String PICTURE_TOO_LARGE_TEXT;
+    @Value("${agi.pictures.max-upload-mb:10}")
+    private long maxUploadMb;
+    @Value("${agi.pictures.upload-dir:${java.io.tmpdir}/agi-uploads}")
+    private String uploadDir;
+
+    protected com.vaadin.ui.Component getComponentByField(FieldMetadata field) {
+        Function<FieldMetadata, com.vaadin.ui.Component> factory = getComponentFactory(field);
+        if (factory == null) {
+            log.error("getComponentByField(): not implemented cast for {}", field.getType().getCanonicalName());
+            return null;
+        }
+        return createComponent(field, factory);
+    }
 
-    protected com.vaadin.ui.Component getComponentByField(Field field) {
-        com.vaadin.ui.Component component;
+    /**
+     * @return generator of the component of the field type, null for unsupported types
+     */
+    protected Function<FieldMetadata, com.vaadin.ui.Component> getComponentFactory(FieldMetadata field) {
         if (field.getType().equals(Long.class)
                 || field.getType().equals(long.class)) {
-            component = generateLongField(field);
+            return this::generateLongField;
         } else if (field.getType().equals(Double.class)
                 || field.getType().equals(double.class)) {
-            component = generateDoubleFieild(field);
+            return this::generateDoubleFieild;
         } else if (field.getType().equals(Float.class) || field.getType().equals(float.class)) {
-            component = generateFloatFieild(field);
+            return this::generateFloatFieild;
         } else if (field.getType().equals(String.class)) {
-            component = generateStringField(field);
+            return this::generateStringField;
         } else if (field.getType().isEnum()) {
-            component = generateEnumField(field);
-        } else if (field.isAnnotationPresent(LinkedObject.class)) {
-            component = generateLinkedObjectField(field);
-        } else if (field.getType().equals(byte[].class) && field.isAnnotationPresent(Picture.class)) {
-            component = generatePictureComponent(field);
+            return this::generateEnumField;
+        } else if (field.isLinkedObject()) {
+            return this::generateLinkedObjectField;
+        } else if (field.isPicture()) {
+            return this::generatePictureComponent;
+        }
+        return null;
+    }
+
+    protected com.vaadin.ui.Component createComponent(FieldMetadata field,
+                                                      Function<FieldMetadata, com.vaadin.ui.Component> factory) {
+        com.vaadin.ui.Component component = factory.apply(field);
+        if (component == null) return null;
+        if (field.isPicture()) {
             makeUpCaptionForField(field, ((HorizontalLayout) component).getComponent(1));
-            return component;
         } else {
-            log.error("getComponentByField(): not implemented cast for {}", field.getType().getCanonicalName());
-            return null;
+            makeUpCaptionForField(field, component);
         }
-        makeUpCaptionForField(field, component);
         return component;
     }
 
-    protected com.vaadin.ui.Component generatePictureComponent(Field field) {
-
+    /**
+     * the upload is received into a temp file by {@link PictureUpload}, the image previews it from the disk
+     */
+    protected com.vaadin.ui.Component generatePictureComponent(FieldMetadata field) {
         Image image = new Image();
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        Upload.Receiver receiver = (filename, mimeType) -> byteArrayOutputStream;
-        Upload upload = new Upload("Select the image", receiver);
-        upload.addSucceededListener(succeededEvent -> {
-            image.setData(byteArrayOutputStream.toByteArray());
-            image.markAsDirtyRecursive();
+        Upload upload = new Upload("Select the image", null);
+        PictureUpload pictureUpload = new PictureUpload(upload, Paths.get(uploadDir), maxUploadMb * 1024 * 1024);
+        upload.addSucceededListener(succeededEvent -> image.setSource(new FileResource(pictureUpload.getFile())));
+        upload.addFailedListener(failedEvent -> {
+            if (pictureUpload.isRejected(failedEvent))
+                Notification.show(MessageFormat.format(PICTURE_TOO_LARGE_TEXT, maxUploadMb), Notification.Type.WARNING_MESSAGE);
         });
-        if (field.getAnnotation(Picture.class).editable()) {
+        if (field.isPictureEditable()) {
             image.addClickListener(click -> {
                 upload.submitUpload();
             });
+        } else {
+            upload.setEnabled(false);
         }
         return new HorizontalLayout(image, upload);
     }
 
-    @SuppressWarnings("unchecked")
-    protected com.vaadin.ui.Component getComponentByFieldAndBind(Field field, Binder binder) {
+    /**
+     * @return the receiver of the upload of a picture component
+     */
+    protected PictureUpload getPictureUpload(com.vaadin.ui.Component component) {
+        return (PictureUpload) Upload.class.cast(HorizontalLayout.class.cast(component).getComponent(1)).getReceiver();
+    }
+
+    /**
+     * points the image of a picture component to {@link PictureResources}, the bytes are never kept in the UI
+     */
+    protected void showPicture(FieldMetadata field, com.vaadin.ui.Component component, Object entity) {
+        Image image = Image.class.cast(HorizontalLayout.class.cast(component).getComponent(0));
+        image.setSource(pictureResources.getResource(metadataRegistry.getMetadata(entity.getClass()), field, entity, false));
+    }
+
+    protected com.vaadin.ui.Component getComponentByFieldAndBind(FieldMetadata field, Binder binder) {
         com.vaadin.ui.Component component = getComponentByField(field);
+        if (component == null) return null;
+        if (isBound(field)) bind(field, getConverter(field), component, binder);
+        return component;
+    }
+
+    /**
+     * @return converter of the text field to the field type, null if the value is bound as is
+     */
+    protected Converter<String, ?> getConverter(FieldMetadata field) {
         if (field.getType().equals(Long.class) || field.getType().equals(long.class)) {
-            binder.forField((HasValue) component)
-                    .withConverter(new StringToLongConverter("Must be a Long value"))
-                    .bind(field.getName());
+            return new StringToLongConverter("Must be a Long value");
         } else if (field.getType().equals(Double.class) || field.getType().equals(double.class)) {
-            binder.forField((HasValue) component)
-                    .withConverter(new StringToDoubleConverter("Must be a double value"))
-                    .bind(field.getName());
+            return new StringToDoubleConverter("Must be a double value");
         } else if (field.getType().equals(Float.class) || field.getType().equals(float.class)) {
-            binder.forField((HasValue) component)
-                    .withConverter(new StringToFloatConverter("Must be a float value"))
-                    .bind(field.getName());
-        } else if (field.getType().equals(String.class)
-                || field.getType().isEnum()
-                || field.isAnnotationPresent(LinkedObject.class)) {
-            binder.bind((HasValue) component, field.getName());
-        } else if (field.getType().equals(byte[].class) && field.isAnnotationPresent(Picture.class)) {
-            Image image = Image.class.cast(HorizontalLayout.class.cast(component).getComponent(0));
-            Upload upload = Upload.class.cast(HorizontalLayout.class.cast(component).getComponent(1));
-            upload.addSucceededListener(new Upload.SucceededListener() {
-                @Override
-                @SneakyThrows
-                public void uploadSucceeded(Upload.SucceededEvent event) {
-                    if (!field.isAccessible()) field.setAccessible(true);
-                    field.set(binder.getBean(), image.getData());
-                    image.markAsDirty();
-                }
-            });
-            //binder.bind((HasValue) component, field.getName());
-        } else {
-            log.error("getComponentByFieldAndBind(): not implemented cast for {}", field.getType().getCanonicalName());
-            return null;
+            return new StringToFloatConverter("Must be a float value");
         }
-        return component;
+        return null;
+    }
+
+    /**
+     * pictures are written by the element form on save, see AbstractElementForm#getUploadedPictures
+     */
+    protected boolean isBound(FieldMetadata field) {
+        return !field.isPicture() && getComponentFactory(field) != null;
     }
 
-    protected com.vaadin.ui.Component generateFloatFieild(Field field) {
+    @SuppressWarnings("unchecked")
+    protected void bind(FieldMetadata field, Converter<String, ?> converter, com.vaadin.ui.Component component,
+                        Binder binder) {
+        Binder.BindingBuilder builder = binder.forField((HasValue) component);
+        if (converter != null) builder = builder.withConverter(converter);
+        builder.bind(field::getValue, field::setValue);
+    }
+
+    protected com.vaadin.ui.Component generateFloatFieild(FieldMetadata field) {
         return new TextField(field.getName());
     }
 
-    protected com.vaadin.ui.Component generateDoubleFieild(Field field) {
+    protected com.vaadin.ui.Component generateDoubleFieild(FieldMetadata field) {
         return new TextField(field.getName());
     }
 
-    protected com.vaadin.ui.Component generateEnumField(Field field) {
+    protected com.vaadin.ui.Component generateEnumField(FieldMetadata field) {
         ComboBox comboBox = new ComboBox<>();
         comboBox.setEmptySelectionCaption(EMPTY_ENUM_TEXT);
         comboBox.setItems(field.getType().getEnumConstants());
         return comboBox;
     }
 
-    protected com.vaadin.ui.Component generateStringField(Field field) {
+    protected com.vaadin.ui.Component generateStringField(FieldMetadata field) {
         com.vaadin.ui.Component textField;
-        if (field.isAnnotationPresent(BigString.class)) {
+        if (field.isBigString()) {
             textField = new TextArea();
         } else textField = new TextField();
         return textField;
     }
 
-    protected com.vaadin.ui.Component generateLongField(Field field) {
+    protected com.vaadin.ui.Component generateLongField(FieldMetadata field) {
         return new TextField(field.getName());
     }
 
     @SuppressWarnings("unchecked")
-    protected com.vaadin.ui.Component generateLinkedObjectField(Field field) {
+    protected com.vaadin.ui.Component generateLinkedObjectField(FieldMetadata field) {
         final Class<?> fieldType = field.getType();
-        if (!fieldType.isAnnotationPresent(AgiEntity.class)) {
+        final EntityMetadata linkedMetadata = metadataRegistry.findMetadata(fieldType);
+        if (linkedMetadata == null || !linkedMetadata.isEntity()) {
             log.error("Attempt to create field without AgiEntity annotation. Classname = {} Field name = {}",
-                    field.getClass().getCanonicalName(), field.getName());
+                    field.getField().getDeclaringClass().getCanonicalName(), field.getName());
             return null;
         }
-        ComboBox comboBox = new ComboBox<>();
-        comboBox.setEmptySelectionCaption(EMPTY_ENUM_TEXT);
-        String methodName;
-        if (field.getType().isAnnotationPresent(RepresentationResolver.class)) {
-            methodName = field.getType().getAnnotation(RepresentationResolver.class).value();
-        } else {
-            methodName = "toString";
+        if (linkedMetadata.getSearchField() == null) {
+            log.error("Field nameForInputSearch = {} is not found in {}",
+                    linkedMetadata.getAgiEntity().nameForInputSearch(), fieldType.getCanonicalName());
+            return null;
         }
-        comboBox.setItemCaptionGenerator(VaadinProvidersFactory.getItemCaptionGenerator(field, methodName));
-        comboBox.setDataProvider(new GenericBackendDataProvider(fieldType,
-                genericDaoFactory.getGenericDaoForClass(fieldType)).withConvertedFilter(new SerializableFunction() {
-            @Override
-            @SneakyThrows
-            public Object apply(Object o) {
-                if (o instanceof String) {
-                    String synonymFieldName = fieldType.getAnnotation(AgiEntity.class).nameForInputSearch();
-                    Class<?> synonymFieldType = fieldType.getDeclaredField(synonymFieldName).getType();
-                    CompareType compareType = synonymFieldType == String.class ? CompareType.LIKE : CompareType.EQUALS;
-                    return ImmutableSet.of(new CriteriaFilter(fieldType, synonymFieldName, o, compareType));
-                } else return o;
-            }
-        }));
-        return comboBox;
+        return new LinkedObjectField<>(fieldType, linkedObjectLookup,
+                genericDaoFactory.getGenericDaoForClass(fieldType), EMPTY_ENUM_TEXT);
     }
 
-    protected void makeUpCaptionForField(Field field, com.vaadin.ui.Component component) {
-        if (field.isAnnotationPresent(Synonym.class)) {
-            component.setCaption(field.getAnnotation(Synonym.class).value());
-        } else component.setCaption(field.getName());
+    protected void makeUpCaptionForField(FieldMetadata field, com.vaadin.ui.Component component) {
+        component.setCaption(field.getCaption());
     }
 
-    protected void makeUpCaptionForField(Field field, Grid.Column column) {
-        if (field.isAnnotationPresent(Synonym.class)) {
-            column.setCaption(field.getAnnotation(Synonym.class).value());
-        } else column.setCaption(field.getName());
+    protected void makeUpCaptionForField(FieldMetadata field, Grid.Column column) {
+        column.setCaption(field.getCaption());
     }
 
-    protected void makeUpCaptionForMethodProvidedColumn(Method method, Grid.Column column) {
-        if (method.isAnnotationPresent(Synonym.class)) {
-            column.setCaption(method.getAnnotation(Synonym.class).value());
-        } else column.setCaption(method.getName());
+    protected void makeUpCaptionForMethodProvidedColumn(MethodMetadata method, Grid.Column column) {
+        column.setCaption(method.getCaption());
     }
 
-    protected void makeUpCaptionForMethodProvidedComponent(Method method, com.vaadin.ui.Component component) {
-        if (method.isAnnotationPresent(Synonym.class)) {
-            component.setCaption(method.getAnnotation(Synonym.class).value());
-        } else component.setCaption(method.getName());
+    protected void makeUpCaptionForMethodProvidedComponent(MethodMetadata method, com.vaadin.ui.Component component) {
+        component.setCaption(method.getCaption());
     }
 
 }
@@ -0,0 +1,53 @@
+package agi.core.form.generic;
+
+import agi.core.dao.GenericDao;
+import agi.core.dao.LinkedObjectLookup;
+import agi.core.dao.LookupItem;
+import com.vaadin.data.provider.DataProvider;
+import com.vaadin.ui.ComboBox;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.CustomField;
+
+/**
+ * Value of a linked object field chosen in a ComboBox of {@link LinkedObjectLookup} id and caption pairs.
+ * The entity is loaded by id when the user selects it, the items of the drop-down are never loaded
+ */
+public class LinkedObjectField<T> extends CustomField<T> {
+
+    private final Class<T> entityClass;
+    private final LinkedObjectLookup lookup;
+    private final ComboBox<LookupItem> comboBox = new ComboBox<>();
+    private T value;
+
+    public LinkedObjectField(Class<T> entityClass, LinkedObjectLookup lookup, GenericDao<T> genericDao,
+                             String emptySelectionCaption) {
+        this.entityClass = entityClass;
+        this.lookup = lookup;
+        comboBox.setEmptySelectionCaption(emptySelectionCaption);
+        comboBox.setItemCaptionGenerator(LookupItem::getCaption);
+        comboBox.setDataProvider(DataProvider.fromFilteringCallbacks(
+                query -> lookup.find(entityClass, query.getFilter().orElse(""), query.getOffset(), query.getLimit()).stream(),
+                query -> lookup.count(entityClass, query.getFilter().orElse(""))));
+        comboBox.addValueChangeListener(event -> {
+            if (!event.isUserOriginated()) return;
+            setValue(event.getValue() == null ? null : genericDao.findById(event.getValue().getId()), true);
+        });
+    }
+
+    @Override
+    protected Component initContent() {
+        comboBox.setWidth(100, Unit.PERCENTAGE);
+        return comboBox;
+    }
+
+    @Override
+    protected void doSetValue(T value) {
+        this.value = value;
+        comboBox.setValue(value == null ? null : lookup.getItem(entityClass, value));
+    }
+
+    @Override
+    public T getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,34 @@
+package agi.core.form.util;
+
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+import com.vaadin.util.CurrentInstance;
+import org.springframework.core.task.TaskDecorator;
+
+import java.util.Map;
+
+/**
+ * Runs background tasks with the Vaadin session and UI of the thread which submitted them,
+ * so the tasks can use {@link com.vaadin.ui.UI#getCurrent()} and the session scoped beans.
+ * The request and the response of the submitting thread are not passed, they are recycled once it is answered
+ */
+public class CurrentInstanceTaskDecorator implements TaskDecorator {
+
+    @Override
+    public Runnable decorate(Runnable runnable) {
+        UI ui = UI.getCurrent();
+        VaadinSession session = VaadinSession.getCurrent();
+        return () -> {
+            Map<Class<?>, CurrentInstance> previous = CurrentInstance.getInstances();
+            CurrentInstance.clearAll();
+            if (ui != null) CurrentInstance.setCurrent(ui);
+            else if (session != null) CurrentInstance.setCurrent(session);
+            try {
+                runnable.run();
+            } finally {
+                CurrentInstance.clearAll();
+                CurrentInstance.restoreInstances(previous);
+            }
+        };
+    }
+}
@@ -1,21 +1,17 @@
 package agi.core.form.util;
 
-import agi.core.annotations.AgiEntity;
-import agi.core.annotations.AgiForm;
+import agi.core.metadata.EntityMetadataRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
 public class EntityNamesResolver {
 
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+
     public String getMenuName(Class aClass) {
-        if (aClass.isAnnotationPresent(AgiEntity.class)) {
-            AgiEntity agiEntity = (AgiEntity) aClass.getAnnotation(AgiEntity.class);
-            return agiEntity.menuCaption().isEmpty() ? aClass.getName() : agiEntity.menuCaption();
-        } else if (aClass.isAnnotationPresent(AgiForm.class)) {
-            AgiForm agiForm = (AgiForm) aClass.getAnnotation(AgiForm.class);
-            return agiForm.caption().isEmpty() ? aClass.getName() : agiForm.caption();
-        }
-        return "void";
+        return metadataRegistry.getMetadata(aClass).getCaption();
     }
 
 }
@@ -0,0 +1,66 @@
+package agi.core.form.util;
+
+import com.vaadin.ui.Label;
+import com.vaadin.ui.ProgressBar;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.VerticalLayout;
+import com.vaadin.ui.Window;
+
+/**
+ * Modal progress of a background task.
+ * The UI polls the server while the dialog is open, updates may be called from any thread
+ */
+public class ProgressDialog extends Window {
+
+    private static final int POLL_INTERVAL_MILLIS = 500;
+
+    private final UI ui;
+    private final long total;
+    private final ProgressBar progressBar = new ProgressBar(0f);
+    private final Label label = new Label();
+    private int previousPollInterval;
+
+    /**
+     * @param total expected amount of work, zero or less if it is unknown
+     */
+    public ProgressDialog(UI ui, String caption, long total) {
+        super(caption);
+        this.ui = ui;
+        this.total = total;
+        progressBar.setWidth("100%");
+        progressBar.setIndeterminate(total <= 0);
+        VerticalLayout layout = new VerticalLayout(progressBar, label);
+        setContent(layout);
+        setWidth("400px");
+        setModal(true);
+        setClosable(false);
+        setResizable(false);
+        center();
+    }
+
+    public void open() {
+        previousPollInterval = ui.getPollInterval();
+        ui.setPollInterval(POLL_INTERVAL_MILLIS);
+        ui.addWindow(this);
+    }
+
+    public void update(long done) {
+        ui.access(() -> {
+            if (total > 0) {
+                progressBar.setValue((float) done / total);
+                label.setValue(String.format("%d of %d", done, total));
+            } else label.setValue(String.valueOf(done));
+        });
+    }
+
+    /**
+     * closes the dialog and runs the action in the UI
+     */
+    public void finish(Runnable action) {
+        ui.access(() -> {
+            close();
+            ui.setPollInterval(previousPollInterval);
+            action.run();
+        });
+    }
+}
@@ -0,0 +1,218 @@
+package agi.core.io;
+
+import agi.core.dao.CriteriaFilter;
+import agi.core.dao.GenericDao;
+import agi.core.dao.GenericDaoFactory;
+import agi.core.dao.ProjectionColumns;
+import agi.core.dao.QueryTemplateCache;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.vaadin.data.provider.QuerySortOrder;
+import com.vaadin.server.StreamResource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Streaming export of the rows matching the filters of a list form.
+ * Rows are read by {@link GenericDao#scrollRows} and written to the output as they come,
+ * XLSX keeps only a window of agi.export.xlsx-window rows in memory
+ */
+@Slf4j
+@Component
+public class EntityExporter {
+
+    static final int XLSX_SHEET_ROWS = 1_000_000;
+    private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+    private static final int ENTITY_FETCH_SIZE = 1000;
+    private static final CsvMapper CSV_MAPPER = new CsvMapper();
+
+    @Value("${agi.export.fetch-size:" + Integer.MIN_VALUE + "}")
+    private int fetchSize;
+    @Value("${agi.export.xlsx-window:100}")
+    private int xlsxWindow;
+    @Autowired
+    GenericDaoFactory genericDaoFactory;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    TaskExecutor agiExportExecutor;
+    @Autowired
+    QueryTemplateCache queryTemplateCache;
+
+    /**
+     * The export runs on agiExportExecutor when the resource is downloaded,
+     * the download request reads it through a pipe, so the UI is not blocked and the file is not materialized.
+     * A failed export breaks the pipe, so the download fails instead of ending with a truncated file,
+     * as well as an export rejected because agi.export.pool-size exports are already running
+     */
+    public StreamResource getStreamResource(Class<?> entityClass, Set<CriteriaFilter> filterSet,
+                                            List<QuerySortOrder> sortOrders, ExportFormat format) {
+        String fileName = metadataRegistry.getMetadata(entityClass).getCaption().trim() + '.' + format.getExtension();
+        StreamResource resource = new StreamResource(() -> {
+            try {
+                ExportPipe inputStream = new ExportPipe(PIPE_BUFFER_SIZE);
+                PipedOutputStream outputStream = new PipedOutputStream(inputStream);
+                try {
+                    agiExportExecutor.execute(() -> {
+                        try {
+                            export(entityClass, filterSet, sortOrders, format, outputStream);
+                            outputStream.close();
+                        } catch (IOException | RuntimeException e) {
+                            log.error("Export of {} is interrupted", entityClass.getCanonicalName(), e);
+                            inputStream.fail(outputStream, e);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    log.warn("Export of {} is rejected, agi.export.pool-size exports are running",
+                            entityClass.getCanonicalName());
+                    inputStream.fail(outputStream, e);
+                }
+                return inputStream;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, fileName);
+        resource.setMIMEType(format.getMimeType());
+        resource.setCacheTime(0);
+        return resource;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void export(Class<?> entityClass, Set<CriteriaFilter> filterSet, List<QuerySortOrder> sortOrders,
+                       ExportFormat format, OutputStream outputStream) throws IOException {
+        ProjectionColumns columns = queryTemplateCache.getProjectionColumns(entityClass);
+        GenericDao<?> genericDao = genericDaoFactory.getGenericDaoForClass(entityClass);
+        int scrollFetchSize = getFetchSize(columns);
+        if (format == ExportFormat.XLSX) exportXlsx(genericDao, columns, filterSet, sortOrders, scrollFetchSize, outputStream);
+        else exportCsv(genericDao, columns, filterSet, sortOrders, scrollFetchSize, outputStream);
+    }
+
+    /**
+     * MySQL Connector/J can't run another statement while a result set is streamed,
+     * so the rows holding linked entities, which may load their own links, are read by batches
+     */
+    private int getFetchSize(ProjectionColumns columns) {
+        return fetchSize == Integer.MIN_VALUE && columns.isHoldingEntities() ? ENTITY_FETCH_SIZE : fetchSize;
+    }
+
+    private void exportCsv(GenericDao<?> genericDao, ProjectionColumns columns, Set<CriteriaFilter> filterSet,
+                           List<QuerySortOrder> sortOrders, int fetchSize, OutputStream outputStream) throws IOException {
+        CsvSchema.Builder schema = CsvSchema.builder().setUseHeader(true);
+        getExportedColumns(columns).forEach(column -> schema.addColumn(column.getCaption()));
+        try (SequenceWriter writer = CSV_MAPPER.writer(schema.build())
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .writeValues(outputStream)) {
+            genericDao.scrollRows(filterSet, sortOrders, fetchSize, tuple -> {
+                try {
+                    writer.write(toValues(columns, tuple));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    private void exportXlsx(GenericDao<?> genericDao, ProjectionColumns columns, Set<CriteriaFilter> filterSet,
+                            List<QuerySortOrder> sortOrders, int fetchSize, OutputStream outputStream) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(xlsxWindow);
+        try {
+            List<String> header = getExportedColumns(columns).stream()
+                    .map(FieldMetadata::getCaption)
+                    .collect(Collectors.toList());
+            Sheet[] sheet = {null};
+            int[] rowNumber = {0};
+            genericDao.scrollRows(filterSet, sortOrders, fetchSize, tuple -> {
+                if (rowNumber[0] % XLSX_SHEET_ROWS == 0) {
+                    sheet[0] = workbook.createSheet();
+                    writeXlsxRow(sheet[0].createRow(0), header);
+                }
+                writeXlsxRow(sheet[0].createRow(rowNumber[0]++ % XLSX_SHEET_ROWS + 1), toValues(columns, tuple));
+            });
+            if (sheet[0] == null) writeXlsxRow(workbook.createSheet().createRow(0), header);
+            workbook.write(outputStream);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    private void writeXlsxRow(Row row, List<String> values) {
+        for (int i = 0; i < values.size(); i++) {
+            row.createCell(i).setCellValue(values.get(i));
+        }
+    }
+
+    /**
+     * pictures are not exported
+     */
+    private List<FieldMetadata> getExportedColumns(ProjectionColumns columns) {
+        return columns.getColumns().stream().filter(column -> !column.isPicture()).collect(Collectors.toList());
+    }
+
+    private List<String> toValues(ProjectionColumns columns, Object[] tuple) {
+        List<String> values = new ArrayList<>(columns.getColumns().size());
+        for (int i = 0; i < columns.getColumns().size(); i++) {
+            if (!columns.getColumns().get(i).isPicture()) values.add(columns.represent(tuple, i));
+        }
+        return values;
+    }
+
+    /**
+     * pipe whose reader gets the failure of the export instead of the end of the file
+     */
+    private static class ExportPipe extends PipedInputStream {
+
+        private volatile IOException failure;
+
+        ExportPipe(int pipeSize) {
+            super(pipeSize);
+        }
+
+        /**
+         * the failure is set before the writing end is closed, so the reader never takes it for the end of the file
+         */
+        void fail(PipedOutputStream outputStream, Exception e) {
+            failure = e instanceof IOException ? (IOException) e : new IOException("Export failed", e);
+            try {
+                outputStream.close();
+            } catch (IOException closeFailure) {
+                failure.addSuppressed(closeFailure);
+            }
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            int read = super.read();
+            if (read < 0 && failure != null) throw failure;
+            return read;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read < 0 && failure != null) throw failure;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package agi.core.io;
+
+import agi.core.dao.GenericDao;
+import agi.core.dao.GenericDaoFactory;
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.google.common.collect.Iterators;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManager;
+import javax.persistence.GeneratedValue;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Streaming import of {@link agi.core.annotations.AgiEntity} rows from CSV or JSON.
+ * Rows are parsed one by one and mapped to the fields by {@link agi.core.annotations.Synonym} captions or names,
+ * every transaction persists at most agi.import.transaction-size rows by batches of agi.import.batch-size,
+ * so neither the parsed file nor the persistence context grow with the count of the rows.
+ * Transactions committed before a failure stay imported, {@link ImportException} tells how many rows that is
+ */
+@Slf4j
+@Component
+public class EntityImporter {
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final CsvMapper CSV_MAPPER = new CsvMapper();
+
+    @Value("${agi.import.batch-size:500}")
+    private int batchSize;
+    @Value("${agi.import.transaction-size:10000}")
+    private int transactionSize;
+    @Autowired
+    GenericDaoFactory genericDaoFactory;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    EntityManager entityManager;
+
+    private final ConversionService conversionService = DefaultConversionService.getSharedInstance();
+
+    /**
+     * @param progressListener receives the count of the imported rows after every batch
+     * @return count of the imported rows
+     * @throws ImportException a row can't be read or persisted, the rows of the committed transactions stay imported
+     */
+    @SuppressWarnings("unchecked")
+    public <T> int importEntities(Class<T> entityClass, InputStream inputStream, ImportFormat format,
+                                  IntConsumer progressListener) {
+        EntityMetadata metadata = metadataRegistry.getMetadata(entityClass);
+        Map<String, FieldMetadata> columns = getColumns(metadata);
+        GenericDao<T> genericDao = genericDaoFactory.getGenericDaoForClass(entityClass);
+        int imported = 0;
+        try (MappingIterator<Map<String, Object>> rows = getReader(format).readValues(inputStream)) {
+            Iterator<T> entities = Iterators.transform(rows, row -> toEntity(entityClass, row, columns));
+            while (entities.hasNext()) {
+                int importedBefore = imported;
+                imported += genericDao.persistAll(Iterators.limit(entities, transactionSize), batchSize,
+                        persisted -> progressListener.accept(importedBefore + persisted));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Import into {} is stopped at the row {}, {} rows are imported",
+                    entityClass.getCanonicalName(), imported + 1, imported);
+            throw new ImportException(imported, e);
+        }
+        log.info("{} rows imported into {}", imported, entityClass.getCanonicalName());
+        return imported;
+    }
+
+    private ObjectReader getReader(ImportFormat format) {
+        if (format == ImportFormat.JSON) return JSON_MAPPER.readerFor(Map.class);
+        return CSV_MAPPER.readerFor(Map.class).with(CsvSchema.emptySchema().withHeader());
+    }
+
+    /**
+     * fields by caption and by name, ids generated by the database are not imported
+     */
+    private Map<String, FieldMetadata> getColumns(EntityMetadata metadata) {
+        Map<String, FieldMetadata> columns = new HashMap<>();
+        for (FieldMetadata field : metadata.getFields()) {
+            if (field.isCollection() || field.getField().isAnnotationPresent(GeneratedValue.class)) continue;
+            columns.put(field.getName(), field);
+            columns.put(field.getCaption(), field);
+        }
+        return columns;
+    }
+
+    private <T> T toEntity(Class<T> entityClass, Map<String, Object> row, Map<String, FieldMetadata> columns) {
+        T entity = newInstance(entityClass);
+        for (Map.Entry<String, Object> column : row.entrySet()) {
+            FieldMetadata field = columns.get(column.getKey());
+            if (field == null || column.getValue() == null || "".equals(column.getValue())) continue;
+            try {
+                field.setValue(entity, convert(column.getValue(), field));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(String.format("Wrong value '%s' of the column '%s'",
+                        column.getValue(), column.getKey()), e);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * linked objects are imported by id and bound as references without loading them
+     */
+    private Object convert(Object value, FieldMetadata field) {
+        if (!field.isLinkedObject()) return conversionService.convert(value, field.getType());
+        FieldMetadata linkedId = metadataRegistry.getMetadata(field.getType()).getIdField();
+        return entityManager.getReference(field.getType(), conversionService.convert(value, linkedId.getType()));
+    }
+
+    /**
+     * the import is stopped, the rows before {@link #getStoppedAtRow()} are committed
+     */
+    @Getter
+    public static class ImportException extends RuntimeException {
+        private final int imported;
+        /**
+         * number of the first row which is not imported, the header is not counted
+         */
+        private final int stoppedAtRow;
+
+        ImportException(int imported, Exception cause) {
+            super(String.format("%d rows are imported, the import is stopped at the row %d: %s",
+                    imported, imported + 1, cause.getMessage()), cause);
+            this.imported = imported;
+            this.stoppedAtRow = imported + 1;
+        }
+    }
+
+    private <T> T newInstance(Class<T> entityClass) {
+        try {
+            Constructor<T> constructor = entityClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return constructor.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No-arg constructor is necessary: " + entityClass.getCanonicalName(), e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package agi.core.io;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public enum ExportFormat {
+    CSV("csv", "text/csv"),
+    /**
+     * a new sheet is started every {@link EntityExporter#XLSX_SHEET_ROWS} rows
+     */
+    XLSX("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+
+    private final String extension;
+    private final String mimeType;
+}
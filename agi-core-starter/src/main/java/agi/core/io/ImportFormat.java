@@ -0,0 +1,16 @@
+package agi.core.io;
+
+public enum ImportFormat {
+    /**
+     * header row with the captions or the names of the fields, one entity per line
+     */
+    CSV,
+    /**
+     * array of objects keyed by the captions or the names of the fields
+     */
+    JSON;
+
+    public static ImportFormat byFileName(String fileName) {
+        return fileName != null && fileName.toLowerCase().endsWith(".json") ? JSON : CSV;
+    }
+}
@@ -0,0 +1,120 @@
+package agi.core.metadata;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Direct accessors of fields and no-arg methods, created once instead of the reflective calls for every value.
+ * A public method of a public class becomes a {@link LambdaMetafactory} lambda, anything else
+ * is called through a {@link MethodHandle} made once from the accessible member
+ */
+@Slf4j
+public final class Accessors {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final Map<Method, Function<Object, Object>> invokers = new ConcurrentHashMap<>();
+
+    private Accessors() {
+    }
+
+    public static Function<Object, Object> getter(Field field) {
+        field.setAccessible(true);
+        try {
+            MethodHandle handle = LOOKUP.unreflectGetter(field).asType(GETTER_TYPE);
+            return target -> {
+                try {
+                    return handle.invokeExact(target);
+                } catch (Throwable e) {
+                    throw rethrow(e);
+                }
+            };
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return setter of the field, null for a final field
+     */
+    public static BiConsumer<Object, Object> setter(Field field) {
+        if (Modifier.isFinal(field.getModifiers())) return null;
+        field.setAccessible(true);
+        try {
+            MethodHandle handle = LOOKUP.unreflectSetter(field).asType(SETTER_TYPE);
+            return (target, value) -> {
+                try {
+                    handle.invokeExact(target, value);
+                } catch (Throwable e) {
+                    throw rethrow(e);
+                }
+            };
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return function calling the no-arg instance method, shared by all callers of the method
+     */
+    public static Function<Object, Object> invoker(Method method) {
+        return invokers.computeIfAbsent(method, Accessors::createInvoker);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> createInvoker(Method method) {
+        method.setAccessible(true);
+        MethodHandle handle;
+        try {
+            handle = LOOKUP.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        if (Modifier.isPublic(method.getModifiers()) && Modifier.isPublic(method.getDeclaringClass().getModifiers())
+                && method.getReturnType() != void.class) {
+            CallSite callSite = null;
+            try {
+                callSite = LambdaMetafactory.metafactory(LOOKUP, "apply",
+                        MethodType.methodType(Function.class), GETTER_TYPE, handle, handle.type().wrap());
+            } catch (LambdaConversionException e) {
+                log.debug("{} is called through a method handle, no lambda is made for it: {}", method, e.getMessage());
+            }
+            if (callSite != null) {
+                try {
+                    return (Function<Object, Object>) callSite.getTarget().invokeExact();
+                } catch (Throwable e) {
+                    throw rethrow(e);
+                }
+            }
+        }
+        MethodHandle genericHandle = handle.asType(GETTER_TYPE);
+        return target -> {
+            try {
+                return genericHandle.invokeExact(target);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        };
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) throw (RuntimeException) e;
+        if (e instanceof Error) throw (Error) e;
+        throw new UndeclaredThrowableException(e);
+    }
+}
@@ -0,0 +1,172 @@
+package agi.core.metadata;
+
+import agi.core.annotations.AgiEntity;
+import agi.core.annotations.AgiForm;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.extern.slf4j.Slf4j;
+import org.reflections.Reflections;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Build-time index of the {@link AgiEntity} and {@link AgiForm} classes, one class name per line.
+ * {@link EntityMetadataRegistry} reads it instead of scanning the classpath, a configured package is still scanned
+ * when some jar or directory holding it has no index of its own.
+ * Written by agi-processor together with the {@link EntityDescriptor}s,
+ * {@link #main} writes it for classes compiled without the processor
+ */
+@Slf4j
+public class AgiIndex {
+
+    public static final String LOCATION = "META-INF/agi.index";
+
+    private static final Cache<ClassLoader, Set<Class<?>>> ANNOTATED_CLASSES = CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * Indexed classes of the packages plus the classes scanned in the packages the index doesn't cover.
+     * Loaded once per class loader, so the beans reading them on startup share a single scan
+     */
+    public static Set<Class<?>> getAnnotatedClasses(ClassLoader classLoader, String[] packages) {
+        try {
+            return ANNOTATED_CLASSES.get(classLoader, () -> load(classLoader, packages));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException("Annotated classes are not loaded", e.getCause());
+        }
+    }
+
+    private static Set<Class<?>> load(ClassLoader classLoader, String[] packages) throws ClassNotFoundException {
+        List<String> prefixes = Arrays.stream(packages).map(String::trim).filter(prefix -> !prefix.isEmpty())
+                .collect(Collectors.toList());
+        Set<Class<?>> annotated = new LinkedHashSet<>();
+        List<String> indexedClasses = read(classLoader);
+        if (indexedClasses != null) {
+            for (String className : indexedClasses) {
+                if (isInPackages(className, prefixes)) annotated.add(Class.forName(className, false, classLoader));
+            }
+        }
+        Set<String> indexedRoots = getIndexedRoots(classLoader);
+        String[] scanned = prefixes.stream().filter(prefix -> !isIndexed(classLoader, prefix, indexedRoots))
+                .toArray(String[]::new);
+        if (scanned.length > 0) {
+            if (indexedClasses != null) log.info("Packages {} are not covered by {}, they are scanned",
+                    Arrays.toString(scanned), LOCATION);
+            annotated.addAll(scan(scanned));
+        }
+        return ImmutableSet.copyOf(annotated);
+    }
+
+    /**
+     * @return the class is in one of the packages, any class when no package is configured
+     */
+    static boolean isInPackages(String className, List<String> prefixes) {
+        if (prefixes.isEmpty()) return true;
+        for (String prefix : prefixes) {
+            if (className.startsWith(prefix + '.')) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return every jar or directory holding the package has its own index
+     */
+    private static boolean isIndexed(ClassLoader classLoader, String prefix, Set<String> indexedRoots) {
+        String path = prefix.replace('.', '/');
+        try {
+            Enumeration<URL> directories = classLoader.getResources(path);
+            if (!directories.hasMoreElements()) return false;
+            while (directories.hasMoreElements()) {
+                String directory = directories.nextElement().toString();
+                if (directory.endsWith("/")) directory = directory.substring(0, directory.length() - 1);
+                if (!indexedRoots.contains(directory.substring(0, directory.length() - path.length()))) return false;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return URLs of the jars and directories having an index, ending with '/'
+     */
+    private static Set<String> getIndexedRoots(ClassLoader classLoader) {
+        try {
+            Set<String> roots = new HashSet<>();
+            Enumeration<URL> resources = classLoader.getResources(LOCATION);
+            while (resources.hasMoreElements()) {
+                String index = resources.nextElement().toString();
+                roots.add(index.substring(0, index.length() - LOCATION.length()));
+            }
+            return roots;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static boolean isPresent(ClassLoader classLoader) {
+        return classLoader.getResource(LOCATION) != null;
+    }
+
+    /**
+     * @return names of the indexed classes of all jars and directories, null if there is no index
+     */
+    public static List<String> read(ClassLoader classLoader) {
+        try {
+            Enumeration<URL> resources = classLoader.getResources(LOCATION);
+            if (!resources.hasMoreElements()) return null;
+            Set<String> classNames = new LinkedHashSet<>();
+            while (resources.hasMoreElements()) {
+                try (InputStream inputStream = resources.nextElement().openStream();
+                     BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+                    reader.lines().map(String::trim).filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                            .forEach(classNames::add);
+                }
+            }
+            return ImmutableList.copyOf(classNames);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Set<Class<?>> scan(String[] packages) {
+        Set<Class<?>> annotated = new LinkedHashSet<>();
+        for (String prefix : packages) {
+            Reflections reflections = new Reflections(prefix.trim());
+            annotated.addAll(reflections.getTypesAnnotatedWith(AgiEntity.class));
+            annotated.addAll(reflections.getTypesAnnotatedWith(AgiForm.class));
+        }
+        return annotated;
+    }
+
+    /**
+     * @param args the index file followed by the packages to scan
+     */
+    public static void main(String[] args) throws IOException {
+        Path index = Paths.get(args[0]);
+        String[] packages = new String[args.length - 1];
+        System.arraycopy(args, 1, packages, 0, packages.length);
+        List<String> classNames = scan(packages).stream().map(Class::getName).sorted().collect(Collectors.toList());
+        Files.createDirectories(index.toAbsolutePath().getParent());
+        Files.write(index, classNames, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,16 @@
+package agi.core.metadata;
+
+import agi.core.form.util.UIOrderComparator;
+
+/**
+ * Common part of the pre-resolved descriptors which are drawn on forms
+ * and ordered by {@link UIOrderComparator}
+ */
+public interface ElementMetadata {
+
+    String getName();
+
+    String getCaption();
+
+    int getDrawOrder();
+}
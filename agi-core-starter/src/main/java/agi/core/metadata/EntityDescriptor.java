@@ -0,0 +1,21 @@
+package agi.core.metadata;
+
+import java.util.List;
+
+/**
+ * Descriptor of an {@link agi.core.annotations.AgiEntity} or {@link agi.core.annotations.AgiForm} class generated
+ * at compile time by agi-processor, registered as a {@link java.util.ServiceLoader} service.
+ * {@link EntityMetadataRegistry} takes the captions, columns, filters and accessors of the fields from it,
+ * the fields of a class without a descriptor are accessed through reflection
+ */
+public interface EntityDescriptor<T> {
+
+    Class<T> getEntityClass();
+
+    String getCaption();
+
+    /**
+     * fields in order of declaration, except the ones the generated code can't access
+     */
+    List<PropertyDescriptor<T, ?>> getProperties();
+}
@@ -0,0 +1,218 @@
+package agi.core.metadata;
+
+import agi.core.annotations.AgiCacheable;
+import agi.core.annotations.AgiColumnValueProvider;
+import agi.core.annotations.AgiDrawOrder;
+import agi.core.annotations.AgiEntity;
+import agi.core.annotations.AgiForm;
+import agi.core.annotations.Command;
+import agi.core.annotations.RepresentationResolver;
+import agi.core.dao.CountMode;
+import agi.core.dao.LoadMode;
+import agi.core.dao.PaginationMode;
+import agi.core.dao.SaveMode;
+import agi.core.form.util.UIOrderComparator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.vaadin.icons.VaadinIcons;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Immutable description of an {@link AgiEntity} or {@link AgiForm} class.
+ * Holds everything the forms and the dao used to look up through the reflection API
+ */
+@Getter
+public class EntityMetadata implements ElementMetadata {
+
+    private final Class<?> entityClass;
+    private final AgiEntity agiEntity;
+    private final AgiForm agiForm;
+    private final String name;
+    private final String caption;
+    private final String singleCaption;
+    private final String menuPath;
+    private final VaadinIcons icon;
+    private final int drawOrder;
+    /**
+     * fields in order of declaration
+     */
+    private final List<FieldMetadata> fields;
+    private final List<FieldMetadata> filteredFields;
+    private final List<FieldMetadata> textIndexedFields;
+    private final List<FieldMetadata> linkedObjects;
+    private final List<FieldMetadata> pictureFields;
+    private final List<MethodMetadata> columnValueProviders;
+    private final List<MethodMetadata> commands;
+    /**
+     * fields and column value providers sorted by {@link AgiDrawOrder}
+     */
+    private final List<ElementMetadata> orderedElements;
+    /**
+     * fields shown as the columns of the list grid, pictures are shown by thumbnails
+     */
+    private final List<FieldMetadata> gridColumns;
+    private final FieldMetadata idField;
+    /**
+     * field named by {@link AgiEntity#nameForInputSearch()}
+     */
+    private final FieldMetadata searchField;
+    private final Method representationResolver;
+    @Getter(AccessLevel.NONE)
+    private final Function<Object, Object> representation;
+    private final ImmutableMap<String, FieldMetadata> fieldsByName;
+
+    /**
+     * generated descriptor of the class, null if it was compiled without agi-processor
+     */
+    private final EntityDescriptor<?> descriptor;
+
+    /**
+     * @param descriptor generated descriptor, null to read the annotations of the fields through reflection
+     */
+    EntityMetadata(Class<?> entityClass, EntityDescriptor<?> descriptor) {
+        this.entityClass = entityClass;
+        this.descriptor = descriptor;
+        this.agiEntity = entityClass.getAnnotation(AgiEntity.class);
+        this.agiForm = entityClass.getAnnotation(AgiForm.class);
+        this.name = entityClass.getName();
+        if (descriptor != null) {
+            this.caption = descriptor.getCaption();
+            this.singleCaption = agiEntity != null ? agiEntity.singleCaption() : agiForm.caption();
+            this.menuPath = agiEntity != null ? agiEntity.menuPath() : agiForm.menuPath();
+            this.icon = agiEntity != null ? agiEntity.icon() : agiForm.icon();
+        } else if (agiEntity != null) {
+            this.caption = agiEntity.menuCaption().isEmpty() ? name : agiEntity.menuCaption();
+            this.singleCaption = agiEntity.singleCaption();
+            this.menuPath = agiEntity.menuPath();
+            this.icon = agiEntity.icon();
+        } else if (agiForm != null) {
+            this.caption = agiForm.caption().isEmpty() ? name : agiForm.caption();
+            this.singleCaption = agiForm.caption();
+            this.menuPath = agiForm.menuPath();
+            this.icon = agiForm.icon();
+        } else throw new IllegalArgumentException("Annotation AgiEntity or AgiForm is necessary: " + name);
+        this.drawOrder = entityClass.isAnnotationPresent(AgiDrawOrder.class) ?
+                entityClass.getAnnotation(AgiDrawOrder.class).value() : 0;
+
+        Map<String, PropertyDescriptor<?, ?>> properties = new HashMap<>();
+        if (descriptor != null) descriptor.getProperties().forEach(property -> properties.put(property.getName(), property));
+        ImmutableList.Builder<FieldMetadata> fieldsBuilder = ImmutableList.builder();
+        ImmutableMap.Builder<String, FieldMetadata> fieldsByNameBuilder = ImmutableMap.builder();
+        for (Field field : entityClass.getDeclaredFields()) {
+            if (field.isAnnotationPresent(Autowired.class) || (field.getModifiers() & Modifier.STATIC) != 0) continue;
+            FieldMetadata fieldMetadata = new FieldMetadata(field, properties.get(field.getName()));
+            fieldsBuilder.add(fieldMetadata);
+            fieldsByNameBuilder.put(fieldMetadata.getName(), fieldMetadata);
+        }
+        this.fields = fieldsBuilder.build();
+        this.fieldsByName = fieldsByNameBuilder.build();
+        this.filteredFields = fields.stream().filter(FieldMetadata::isFiltered).collect(ImmutableList.toImmutableList());
+        this.textIndexedFields = fields.stream().filter(FieldMetadata::isTextIndexed).collect(ImmutableList.toImmutableList());
+        this.linkedObjects = fields.stream().filter(FieldMetadata::isLinkedObject).collect(ImmutableList.toImmutableList());
+        this.pictureFields = fields.stream().filter(FieldMetadata::isPicture).collect(ImmutableList.toImmutableList());
+        this.idField = fields.stream().filter(FieldMetadata::isId).findFirst().orElse(null);
+        this.searchField = agiEntity == null ? null : fieldsByName.get(agiEntity.nameForInputSearch());
+
+        List<MethodMetadata> valueProviders = new ArrayList<>();
+        List<MethodMetadata> commandMethods = new ArrayList<>();
+        for (Method method : entityClass.getDeclaredMethods()) {
+            if (method.isAnnotationPresent(AgiColumnValueProvider.class)) valueProviders.add(new MethodMetadata(method));
+            if (method.isAnnotationPresent(Command.class)) commandMethods.add(new MethodMetadata(method));
+        }
+        this.columnValueProviders = ImmutableList.copyOf(valueProviders);
+        this.commands = ImmutableList.copyOf(commandMethods);
+        this.orderedElements = Stream.concat(fields.stream(), columnValueProviders.stream())
+                .sorted(new UIOrderComparator())
+                .collect(ImmutableList.toImmutableList());
+
+        this.gridColumns = fields.stream()
+                .filter(FieldMetadata::isColumn)
+                .filter(field -> !isProjection() || !field.isBigString())
+                .collect(ImmutableList.toImmutableList());
+        checkListLoading();
+
+        this.representationResolver = entityClass.isAnnotationPresent(RepresentationResolver.class) ?
+                findMethod(entityClass.getAnnotation(RepresentationResolver.class).value()) : null;
+        this.representation = representationResolver != null ? Accessors.invoker(representationResolver) : null;
+    }
+
+    /**
+     * @return caption of the entity by {@link RepresentationResolver} or toString()
+     */
+    public String represent(Object entity) {
+        return String.valueOf(representation != null ? representation.apply(entity) : entity);
+    }
+
+    public FieldMetadata getField(String fieldName) {
+        return fieldsByName.get(fieldName);
+    }
+
+    public boolean isEntity() {
+        return agiEntity != null;
+    }
+
+    public PaginationMode getPaginationMode() {
+        return agiEntity == null ? PaginationMode.OFFSET : agiEntity.pagination();
+    }
+
+    public CountMode getCountMode() {
+        return agiEntity == null ? CountMode.EXACT : agiEntity.count();
+    }
+
+    public SaveMode getSaveMode() {
+        return agiEntity == null ? SaveMode.MERGE : agiEntity.save();
+    }
+
+    public boolean isMultiSelect() {
+        return agiEntity != null && agiEntity.multiSelect();
+    }
+
+    public boolean isCacheable() {
+        return entityClass.isAnnotationPresent(AgiCacheable.class);
+    }
+
+    /**
+     * column value providers get the whole entity, so their grids always load entities
+     */
+    public boolean isProjection() {
+        return agiEntity != null && agiEntity.load() == LoadMode.PROJECTION && columnValueProviders.isEmpty();
+    }
+
+    /**
+     * Hibernate initializes eager collections of every loaded entity by a separate select, fetch graphs included,
+     * so a list grid reading entities would cost a statement per row
+     *
+     * @throws IllegalStateException the grid of the entity reads entities having an eager collection
+     */
+    private void checkListLoading() {
+        if (agiEntity == null || isProjection()) return;
+        for (FieldMetadata field : fields) {
+            if (field.isEagerCollection()) {
+                throw new IllegalStateException(String.format("Eager collection %s.%s is loaded for every row of the list grid, " +
+                        "map it with FetchType.LAZY or use @AgiEntity(load = LoadMode.PROJECTION)", name, field.getName()));
+            }
+        }
+    }
+
+    private Method findMethod(String methodName) {
+        for (Method declaredMethod : entityClass.getDeclaredMethods()) {
+            if (declaredMethod.getName().equals(methodName) && declaredMethod.getParameterCount() == 0) {
+                declaredMethod.setAccessible(true);
+                return declaredMethod;
+            }
+        }
+        return null;
+    }
+}
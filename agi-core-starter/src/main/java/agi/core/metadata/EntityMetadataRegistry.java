@@ -0,0 +1,86 @@
+package agi.core.metadata;
+
+import agi.core.annotations.AgiEntity;
+import agi.core.annotations.AgiForm;
+import com.google.common.collect.ImmutableList;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link EntityMetadata} built once on startup
+ * for every {@link AgiEntity} and {@link AgiForm} class of the configured packages
+ */
+@Slf4j
+@Component
+public class EntityMetadataRegistry {
+
+    @Value("${com.sepnotican.agi-package}")
+    private String[] packagesToScan;
+
+    private final Map<Class<?>, EntityMetadata> metadataMap = new ConcurrentHashMap<>();
+    private final Map<Class<?>, EntityDescriptor<?>> descriptors = new ConcurrentHashMap<>();
+    private List<EntityMetadata> annotatedClasses = ImmutableList.of();
+
+    /**
+     * the classes are taken from {@link AgiIndex} if the build has written it, otherwise the packages are scanned
+     */
+    @PostConstruct
+    public void init() {
+        ClassLoader classLoader = getClass().getClassLoader();
+        for (EntityDescriptor<?> descriptor : ServiceLoader.load(EntityDescriptor.class, classLoader)) {
+            descriptors.put(descriptor.getEntityClass(), descriptor);
+        }
+        ImmutableList.Builder<EntityMetadata> builder = ImmutableList.builder();
+        for (Class<?> aClass : AgiIndex.getAnnotatedClasses(classLoader, packagesToScan)) {
+            builder.add(getMetadata(aClass));
+        }
+        annotatedClasses = builder.build();
+        log.info("Entity metadata is built for {} classes{}, {} of them by generated descriptors", annotatedClasses.size(),
+                AgiIndex.isPresent(classLoader) ? " of " + AgiIndex.LOCATION : "", descriptors.size());
+    }
+
+    /**
+     * @return metadata of the class or of the nearest annotated superclass (e.g. for proxies)
+     * @throws IllegalArgumentException if the class is not annotated with {@link AgiEntity} or {@link AgiForm}
+     */
+    public EntityMetadata getMetadata(Class<?> aClass) {
+        EntityMetadata metadata = findMetadata(aClass);
+        if (metadata == null)
+            throw new IllegalArgumentException("Unacceptable class, annotation AgiEntity or AgiForm is necessary: "
+                    + aClass.getCanonicalName());
+        return metadata;
+    }
+
+    /**
+     * @return metadata of the class or of the nearest annotated superclass, null for not annotated classes
+     */
+    public EntityMetadata findMetadata(Class<?> aClass) {
+        EntityMetadata metadata = metadataMap.get(aClass);
+        if (metadata != null) return metadata;
+        Class<?> annotatedClass = aClass;
+        while (annotatedClass != null
+                && !annotatedClass.isAnnotationPresent(AgiEntity.class)
+                && !annotatedClass.isAnnotationPresent(AgiForm.class)) {
+            annotatedClass = annotatedClass.getSuperclass();
+        }
+        if (annotatedClass == null) return null;
+        metadata = metadataMap.computeIfAbsent(annotatedClass,
+                annotated -> new EntityMetadata(annotated, descriptors.get(annotated)));
+        metadataMap.putIfAbsent(aClass, metadata);
+        return metadata;
+    }
+
+    /**
+     * @return metadata of all scanned classes
+     */
+    public List<EntityMetadata> getAnnotatedClasses() {
+        return annotatedClasses;
+    }
+}
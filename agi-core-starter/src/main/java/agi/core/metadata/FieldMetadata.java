@@ -0,0 +1,182 @@
+package agi.core.metadata;
+
+import agi.core.annotations.AgiDrawOrder;
+import agi.core.annotations.BigString;
+import agi.core.annotations.Filtered;
+import agi.core.annotations.LinkedObject;
+import agi.core.annotations.Picture;
+import agi.core.annotations.RepresentationResolver;
+import agi.core.annotations.Synonym;
+import agi.core.form.util.RepresentationResolverExecption;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.hibernate.annotations.Generated;
+import org.hibernate.annotations.GenerationTime;
+
+import javax.persistence.ElementCollection;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.ManyToMany;
+import javax.persistence.OneToMany;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Immutable descriptor of an entity field, resolved once by {@link EntityMetadataRegistry}
+ */
+@Getter
+public class FieldMetadata implements ElementMetadata {
+
+    private final Field field;
+    private final String name;
+    private final Class<?> type;
+    private final String caption;
+    private final int drawOrder;
+    private final boolean id;
+    private final boolean filtered;
+    /**
+     * substring filters are resolved by {@link agi.core.dao.TextIndex}
+     */
+    private final boolean textIndexed;
+    private final boolean linkedObject;
+    private final boolean bigString;
+    private final boolean picture;
+    private final boolean pictureEditable;
+    /**
+     * collections and maps are never shown in the grid
+     */
+    private final boolean collection;
+    /**
+     * collection mapped with FetchType.EAGER, initialized by a separate select for every loaded entity
+     */
+    private final boolean eagerCollection;
+    private final boolean representationResolverPresent;
+    /**
+     * value can be compared in a keyset (seek) predicate
+     */
+    private final boolean comparable;
+    /**
+     * value is generated by the database and has to be read back after a write
+     */
+    private final boolean generated;
+    /**
+     * method of the field type used to show the value as a string:
+     * {@link RepresentationResolver} value or toString() by default
+     */
+    private final Method representationMethod;
+    /**
+     * generated accessors of the field, null if the class has no {@link EntityDescriptor}
+     */
+    private final PropertyDescriptor<Object, Object> property;
+    /**
+     * the generated accessors or method handles of the field, see {@link Accessors}
+     */
+    @Getter(AccessLevel.NONE)
+    private final Function<Object, Object> getter;
+    @Getter(AccessLevel.NONE)
+    private final BiConsumer<Object, Object> setter;
+    @Getter(AccessLevel.NONE)
+    private final Function<Object, Object> representation;
+
+    /**
+     * @param property generated descriptor of the field, null to use the annotations and the reflection
+     */
+    @SuppressWarnings("unchecked")
+    FieldMetadata(Field field, PropertyDescriptor<?, ?> property) {
+        this.field = field;
+        this.property = (PropertyDescriptor<Object, Object>) property;
+        this.field.setAccessible(true);
+        this.name = field.getName();
+        this.type = field.getType();
+        if (property != null) {
+            this.caption = property.getCaption();
+            this.drawOrder = property.getDrawOrder();
+            this.filtered = property.isFiltered();
+        } else {
+            this.caption = field.isAnnotationPresent(Synonym.class) ? field.getAnnotation(Synonym.class).value() : name;
+            this.drawOrder = field.isAnnotationPresent(AgiDrawOrder.class) ? field.getAnnotation(AgiDrawOrder.class).value() : 0;
+            this.filtered = field.isAnnotationPresent(Filtered.class);
+        }
+        this.id = field.isAnnotationPresent(Id.class);
+        this.textIndexed = filtered && type == String.class && field.getAnnotation(Filtered.class).textIndex();
+        this.linkedObject = field.isAnnotationPresent(LinkedObject.class);
+        this.bigString = field.isAnnotationPresent(BigString.class);
+        this.picture = type.equals(byte[].class) && field.isAnnotationPresent(Picture.class);
+        this.pictureEditable = picture && field.getAnnotation(Picture.class).editable();
+        this.collection = type.isAssignableFrom(Map.class) || type.isAssignableFrom(List.class)
+                || type.isAssignableFrom(Set.class);
+        this.eagerCollection = collection && isEager(field);
+        this.representationResolverPresent = type.isAnnotationPresent(RepresentationResolver.class);
+        this.comparable = !linkedObject && !collection && (type.isPrimitive() || Comparable.class.isAssignableFrom(type));
+        this.generated = field.isAnnotationPresent(Generated.class)
+                && field.getAnnotation(Generated.class).value() != GenerationTime.NEVER;
+        this.representationMethod = linkedObject || representationResolverPresent ? resolveRepresentationMethod() : null;
+        this.getter = property != null ? this.property.getGetter() : Accessors.getter(field);
+        this.setter = property != null && property.getSetter() != null ? this.property.getSetter() : Accessors.setter(field);
+        this.representation = representationMethod != null ? Accessors.invoker(representationMethod) : null;
+    }
+
+    private static boolean isEager(Field field) {
+        if (field.isAnnotationPresent(OneToMany.class)) return field.getAnnotation(OneToMany.class).fetch() == FetchType.EAGER;
+        if (field.isAnnotationPresent(ManyToMany.class)) return field.getAnnotation(ManyToMany.class).fetch() == FetchType.EAGER;
+        if (field.isAnnotationPresent(ElementCollection.class)) {
+            return field.getAnnotation(ElementCollection.class).fetch() == FetchType.EAGER;
+        }
+        return false;
+    }
+
+    public Object getValue(Object entity) {
+        return getter.apply(entity);
+    }
+
+    /**
+     * final fields are written through the reflection
+     */
+    public void setValue(Object entity, Object value) {
+        if (setter != null) {
+            setter.accept(entity, value);
+            return;
+        }
+        try {
+            field.set(entity, value);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the value shown as a string by {@link #getRepresentationMethod()}, empty string for null
+     */
+    public String represent(Object value) {
+        if (value == null) return "";
+        return String.valueOf(representation != null ? representation.apply(value) : value);
+    }
+
+    /**
+     * @return the field is a column of the list grid
+     */
+    public boolean isColumn() {
+        return property != null ? property.isColumn() : !collection && !picture;
+    }
+
+    private Method resolveRepresentationMethod() {
+        String methodName = representationResolverPresent ? type.getAnnotation(RepresentationResolver.class).value() : "toString";
+        for (Method declaredMethod : type.getDeclaredMethods()) {
+            if (declaredMethod.getName().equals(methodName) && declaredMethod.getParameterCount() == 0) {
+                declaredMethod.setAccessible(true);
+                return declaredMethod;
+            }
+        }
+        try {
+            return type.getMethod(methodName);
+        } catch (NoSuchMethodException e) {
+            throw new RepresentationResolverExecption(
+                    String.format("Can't find method=%s for field=%s", methodName, name));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package agi.core.metadata;
+
+import agi.core.annotations.AgiColumnValueProvider;
+import agi.core.annotations.AgiDrawOrder;
+import agi.core.annotations.Command;
+import agi.core.annotations.Synonym;
+import lombok.Getter;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Immutable descriptor of an {@link AgiColumnValueProvider} or {@link Command} method
+ */
+@Getter
+public class MethodMetadata implements ElementMetadata {
+
+    private final Method method;
+    private final String name;
+    private final String caption;
+    private final int drawOrder;
+    private final boolean staticMethod;
+    private final Command command;
+
+    MethodMetadata(Method method) {
+        this.method = method;
+        this.method.setAccessible(true);
+        this.name = method.getName();
+        this.command = method.getAnnotation(Command.class);
+        if (command != null) {
+            this.caption = command.caption();
+        } else {
+            this.caption = method.isAnnotationPresent(Synonym.class) ? method.getAnnotation(Synonym.class).value() : name;
+        }
+        this.drawOrder = method.isAnnotationPresent(AgiDrawOrder.class) ? method.getAnnotation(AgiDrawOrder.class).value() : 0;
+        this.staticMethod = (method.getModifiers() & Modifier.STATIC) != 0;
+    }
+}
@@ -0,0 +1,29 @@
+package agi.core.metadata;
+
+import com.vaadin.data.ValueProvider;
+import com.vaadin.server.Setter;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Field of an {@link EntityDescriptor} with generated typed accessors
+ */
+@Getter
+@AllArgsConstructor
+public final class PropertyDescriptor<T, V> {
+
+    private final String name;
+    private final Class<V> type;
+    private final String caption;
+    private final int drawOrder;
+    private final boolean filtered;
+    /**
+     * field is shown as a column of the list grid
+     */
+    private final boolean column;
+    private final ValueProvider<T, V> getter;
+    /**
+     * null for final fields
+     */
+    private final Setter<T, V> setter;
+}
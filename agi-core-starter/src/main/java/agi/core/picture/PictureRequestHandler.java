@@ -0,0 +1,108 @@
+package agi.core.picture;
+
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import com.google.common.base.Splitter;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.vaadin.server.RequestHandler;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinSession;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+
+/**
+ * Serves the pictures of {@link PictureResources} URLs within the Vaadin session, outside of its lock:
+ * the picture is streamed from the database, the thumbnail from {@link ThumbnailCache}.
+ * URLs are signed by a key of the session, so it serves only the pictures of the rows it has shown.
+ * Responses carry the ETag of the picture and must be revalidated, an unchanged picture costs a 304
+ */
+class PictureRequestHandler implements RequestHandler {
+
+    static final String PATH = "agi-pictures";
+    private static final String THUMBNAIL = "thumbnail";
+
+    private final EntityMetadataRegistry metadataRegistry;
+    private final PictureStore pictureStore;
+    private final ThumbnailCache thumbnailCache;
+    private final HashFunction signature;
+    private final ConversionService conversionService = DefaultConversionService.getSharedInstance();
+
+    PictureRequestHandler(EntityMetadataRegistry metadataRegistry, PictureStore pictureStore, ThumbnailCache thumbnailCache) {
+        this.metadataRegistry = metadataRegistry;
+        this.pictureStore = pictureStore;
+        this.thumbnailCache = thumbnailCache;
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.signature = Hashing.hmacSha256(key);
+    }
+
+    String sign(String path) {
+        return signature.hashString(path, StandardCharsets.UTF_8).toString();
+    }
+
+    @Override
+    public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response) throws IOException {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null || !pathInfo.startsWith('/' + PATH + '/')) return false;
+        String path = pathInfo.substring(PATH.length() + 2);
+        String requestSignature = request.getParameter("s");
+        if (requestSignature == null || !MessageDigest.isEqual(sign(path).getBytes(StandardCharsets.UTF_8),
+                requestSignature.getBytes(StandardCharsets.UTF_8))) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, null);
+            return true;
+        }
+        List<String> parts = Splitter.on('/').splitToList(path);
+        EntityMetadata metadata = metadataRegistry.getAnnotatedClasses().stream()
+                .filter(candidate -> candidate.getName().equals(parts.get(0)))
+                .findFirst()
+                .orElse(null);
+        FieldMetadata field = metadata == null || parts.size() < 3 ? null : metadata.getField(parts.get(1));
+        if (field == null || !field.isPicture() || metadata.getIdField() == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, null);
+            return true;
+        }
+        Object id = conversionService.convert(parts.get(2), metadata.getIdField().getType());
+        boolean thumbnail = parts.size() > 3 && THUMBNAIL.equals(parts.get(3));
+        for (int attempt = 0; attempt < 2; attempt++) {
+            if (send(request, response, metadata.getEntityClass(), field, id, thumbnail)) return true;
+        }
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+        return true;
+    }
+
+    /**
+     * @return false if the thumbnail has been evicted before it could be sent, it is created again on the next attempt
+     */
+    private boolean send(VaadinRequest request, VaadinResponse response, Class<?> entityClass, FieldMetadata field,
+                         Object id, boolean thumbnail) throws IOException {
+        ThumbnailCache.Thumbnail picture = thumbnailCache.get(entityClass, field, id);
+        if (picture.isEmpty() || (thumbnail && picture.getFile() == null)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, null);
+            return true;
+        }
+        String etag = thumbnail ? picture.getEtag().replaceFirst("\"$", "-thumbnail\"") : picture.getEtag();
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "private, no-cache");
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        if (thumbnail) {
+            response.setContentType(picture.getThumbnailMimeType());
+            return picture.copyTo(response.getOutputStream());
+        }
+        if (picture.getMimeType() != null) response.setContentType(picture.getMimeType());
+        pictureStore.read(entityClass, field, id, response.getOutputStream());
+        return true;
+    }
+}
@@ -0,0 +1,53 @@
+package agi.core.picture;
+
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import com.google.common.net.UrlEscapers;
+import com.vaadin.server.ExternalResource;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.shared.ApplicationConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Resources of the {@link agi.core.annotations.Picture} fields for Image components and grid renderers.
+ * The browser loads the picture by URL instead of keeping it in the UI state, the URL is served by
+ * {@link PictureRequestHandler} of the Vaadin session which has rendered it, so a request without that session
+ * or with a URL the session has not been given gets nothing
+ */
+@Component
+public class PictureResources {
+
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+    @Autowired
+    PictureStore pictureStore;
+    @Autowired
+    ThumbnailCache thumbnailCache;
+
+    /**
+     * @return resource of the picture, null for a row without id or outside a Vaadin session
+     */
+    public ExternalResource getResource(EntityMetadata metadata, FieldMetadata field, Object entity, boolean thumbnail) {
+        Object id = metadata.getIdField() == null ? null : metadata.getIdField().getValue(entity);
+        VaadinSession session = VaadinSession.getCurrent();
+        if (id == null || session == null) return null;
+        String path = metadata.getName() + '/' + field.getName() + '/' + id + (thumbnail ? "/thumbnail" : "");
+        return new ExternalResource(ApplicationConstants.APP_PROTOCOL_PREFIX + PictureRequestHandler.PATH + '/'
+                + UrlEscapers.urlFragmentEscaper().escape(path) + "?s=" + getHandler(session).sign(path));
+    }
+
+    /**
+     * the handler is registered when the session renders its first picture
+     */
+    private PictureRequestHandler getHandler(VaadinSession session) {
+        PictureRequestHandler handler = session.getAttribute(PictureRequestHandler.class);
+        if (handler == null) {
+            handler = new PictureRequestHandler(metadataRegistry, pictureStore, thumbnailCache);
+            session.setAttribute(PictureRequestHandler.class, handler);
+            session.addRequestHandler(handler);
+        }
+        return handler;
+    }
+}
@@ -0,0 +1,112 @@
+package agi.core.picture;
+
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import agi.core.metadata.FieldMetadata;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.PersistentAttributeInterceptable;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StreamUtils;
+
+import javax.persistence.Basic;
+import javax.persistence.EntityManager;
+import javax.persistence.FetchType;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Reads and writes {@link agi.core.annotations.Picture} columns through JDBC by the id of the row,
+ * so the bytes go between the database and the HTTP stream without the entity.
+ * The entity itself skips them only if the field is {@link Basic#fetch()} LAZY and Hibernate enhances the class
+ */
+@Slf4j
+@Component
+public class PictureStore implements ApplicationListener<ApplicationReadyEvent> {
+
+    @Autowired
+    EntityManager entityManager;
+    @Autowired
+    EntityMetadataRegistry metadataRegistry;
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        for (EntityMetadata metadata : metadataRegistry.getAnnotatedClasses()) {
+            for (FieldMetadata field : metadata.getPictureFields()) {
+                if (!isLazy(metadata.getEntityClass(), field))
+                    log.warn("Picture {}.{} is loaded with every entity: declare it @Basic(fetch = FetchType.LAZY) " +
+                            "and enable the bytecode enhancement of Hibernate", metadata.getName(), field.getName());
+            }
+        }
+    }
+
+    /**
+     * @return false if there is no row or no picture
+     */
+    @Transactional(readOnly = true)
+    public boolean read(Class<?> entityClass, FieldMetadata field, Object id, OutputStream outputStream) {
+        AbstractEntityPersister persister = getPersister(entityClass);
+        String sql = "select " + persister.getPropertyColumnNames(field.getName())[0]
+                + " from " + persister.getTableName()
+                + " where " + persister.getIdentifierColumnNames()[0] + " = ?";
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setObject(1, id);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) return false;
+                    try (InputStream inputStream = resultSet.getBinaryStream(1)) {
+                        if (inputStream == null) return false;
+                        StreamUtils.copy(inputStream, outputStream);
+                        return true;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * streams the file into the picture column of the row, the driver gets the stream and its length
+     */
+    @Transactional
+    public void write(Class<?> entityClass, FieldMetadata field, Object id, File file) {
+        AbstractEntityPersister persister = getPersister(entityClass);
+        String sql = "update " + persister.getTableName()
+                + " set " + persister.getPropertyColumnNames(field.getName())[0] + " = ?"
+                + " where " + persister.getIdentifierColumnNames()[0] + " = ?";
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql);
+                 InputStream inputStream = new FileInputStream(file)) {
+                statement.setBinaryStream(1, inputStream, file.length());
+                statement.setObject(2, id);
+                statement.executeUpdate();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private boolean isLazy(Class<?> entityClass, FieldMetadata field) {
+        Basic basic = field.getField().getAnnotation(Basic.class);
+        return basic != null && basic.fetch() == FetchType.LAZY
+                && PersistentAttributeInterceptable.class.isAssignableFrom(entityClass);
+    }
+
+    private AbstractEntityPersister getPersister(Class<?> entityClass) {
+        return (AbstractEntityPersister) entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                .getMetamodel().entityPersister(entityClass);
+    }
+}
@@ -0,0 +1,117 @@
+package agi.core.picture;
+
+import com.vaadin.ui.Upload;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Receives a picture upload into a temp file, the bytes are never collected in memory.
+ * An upload declaring more than the max size is interrupted before it starts,
+ * one which doesn't declare its length fails as soon as it passes the limit.
+ * The file is kept until it is written by {@link PictureStore#write} and then {@link #discard() discarded}
+ */
+@Slf4j
+public class PictureUpload implements Upload.Receiver, Upload.StartedListener, Upload.FailedListener {
+
+    private final Upload upload;
+    private final Path directory;
+    private final long maxBytes;
+    private File file;
+    private File receivingFile;
+
+    public PictureUpload(Upload upload, Path directory, long maxBytes) {
+        this.upload = upload;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        upload.setReceiver(this);
+        upload.addStartedListener(this);
+        upload.addFailedListener(this);
+        upload.addSucceededListener(event -> {
+            discard();
+            file = receivingFile;
+            receivingFile = null;
+        });
+    }
+
+    @Override
+    public void uploadStarted(Upload.StartedEvent event) {
+        if (event.getContentLength() > maxBytes) upload.interruptUpload();
+    }
+
+    @Override
+    public OutputStream receiveUpload(String filename, String mimeType) {
+        try {
+            Files.createDirectories(directory);
+            receivingFile = Files.createTempFile(directory, "upload", null).toFile();
+            return new LimitedOutputStream(new FileOutputStream(receivingFile));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void uploadFailed(Upload.FailedEvent event) {
+        delete(receivingFile);
+        receivingFile = null;
+    }
+
+    public boolean isRejected(Upload.FailedEvent event) {
+        return event.getLength() > maxBytes || event.getReason() instanceof SizeLimitExceededException;
+    }
+
+    /**
+     * @return the received picture, null if nothing has been uploaded since the last discard
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public void discard() {
+        delete(file);
+        file = null;
+    }
+
+    private static void delete(File file) {
+        if (file != null && !file.delete() && file.exists()) log.warn("Can't delete upload {}", file);
+    }
+
+    static class SizeLimitExceededException extends IOException {
+        SizeLimitExceededException(long maxBytes) {
+            super("Picture exceeds " + maxBytes + " bytes");
+        }
+    }
+
+    private class LimitedOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        LimitedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            count(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count(len);
+            out.write(b, off, len);
+        }
+
+        private void count(int len) throws IOException {
+            count += len;
+            if (count > maxBytes) throw new SizeLimitExceededException(maxBytes);
+        }
+    }
+}
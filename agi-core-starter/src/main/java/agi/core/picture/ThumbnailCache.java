@@ -0,0 +1,226 @@
+package agi.core.picture;
+
+import agi.core.dao.EntityChangeListener;
+import agi.core.metadata.FieldMetadata;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import javax.annotation.PostConstruct;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk thumbnails of the pictures with the ETag of every picture.
+ * A picture is read from the database once to compute both, the total size of the thumbnails is capped by
+ * agi.pictures.thumbnail-cache-mb, the least recently used ones are deleted first.
+ * Thumbnails of an entity are dropped when it is changed, the file of a dropped thumbnail
+ * is deleted once it is no longer being sent.
+ * Large pictures are decoded subsampled, so a thumbnail doesn't need the memory of the whole picture
+ */
+@Slf4j
+@Component
+public class ThumbnailCache implements EntityChangeListener {
+
+    private static final String THUMBNAIL_FORMAT = "png";
+    /**
+     * weight of an entry besides its file, bounds the count of the pictures without thumbnails
+     */
+    private static final int ENTRY_WEIGHT = 1024;
+
+    @Value("${agi.pictures.cache-dir:${java.io.tmpdir}/agi-thumbnails}")
+    private String cacheDir;
+    @Value("${agi.pictures.thumbnail-cache-mb:256}")
+    private long cacheSizeMb;
+    @Value("${agi.pictures.thumbnail-size:64}")
+    private int thumbnailSize;
+    @Autowired
+    PictureStore pictureStore;
+
+    private Path directory;
+    private Cache<PictureKey, Thumbnail> thumbnails;
+    private final AtomicLong fileCounter = new AtomicLong();
+
+    /**
+     * thumbnails of the previous run are not trusted, the pictures may have been changed meanwhile
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        directory = Paths.get(cacheDir);
+        FileSystemUtils.deleteRecursively(directory);
+        Files.createDirectories(directory);
+        thumbnails = CacheBuilder.newBuilder()
+                .maximumWeight(cacheSizeMb * 1024 * 1024)
+                .weigher((PictureKey key, Thumbnail thumbnail) -> ENTRY_WEIGHT + thumbnail.size)
+                .removalListener((RemovalListener<PictureKey, Thumbnail>) notification -> notification.getValue().release())
+                .build();
+    }
+
+    public int getThumbnailSize() {
+        return thumbnailSize;
+    }
+
+    /**
+     * @return thumbnail of the picture, {@link Thumbnail#isEmpty()} if there is no picture
+     */
+    public Thumbnail get(Class<?> entityClass, FieldMetadata field, Object id) {
+        try {
+            return thumbnails.get(new PictureKey(entityClass, field.getName(), id), () -> create(entityClass, field, id));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void onEntitiesChanged(Class<?> entityClass) {
+        thumbnails.asMap().keySet().removeIf(key -> key.entityClass.equals(entityClass));
+    }
+
+    /**
+     * the picture is spooled to a temporary file while its digest is computed, the file is deleted after scaling
+     */
+    private Thumbnail create(Class<?> entityClass, FieldMetadata field, Object id) throws IOException {
+        Path picture = Files.createTempFile(directory, "picture", ".tmp");
+        try {
+            String etag;
+            try (HashingOutputStream outputStream = new HashingOutputStream(Hashing.sha256(), Files.newOutputStream(picture))) {
+                if (!pictureStore.read(entityClass, field, id, outputStream)) return Thumbnail.EMPTY;
+                etag = '"' + outputStream.hash().toString() + '"';
+            }
+            return scale(picture, etag);
+        } finally {
+            Files.deleteIfExists(picture);
+        }
+    }
+
+    private Thumbnail scale(Path picture, String etag) throws IOException {
+        try (ImageInputStream imageStream = ImageIO.createImageInputStream(picture.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageStream);
+            if (!readers.hasNext()) return new Thumbnail(etag, null, null, 0);
+            ImageReader reader = readers.next();
+            String mimeType = "image/" + reader.getFormatName().toLowerCase(Locale.ROOT);
+            try {
+                reader.setInput(imageStream);
+                BufferedImage image = reader.read(0, getReadParam(reader));
+                double scale = Math.min(1, (double) thumbnailSize / Math.max(image.getWidth(), image.getHeight()));
+                int width = Math.max(1, (int) (image.getWidth() * scale));
+                int height = Math.max(1, (int) (image.getHeight() * scale));
+                BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                Graphics2D graphics = thumbnail.createGraphics();
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(image, 0, 0, width, height, null);
+                graphics.dispose();
+                Path file = directory.resolve(fileCounter.incrementAndGet() + "." + THUMBNAIL_FORMAT);
+                ImageIO.write(thumbnail, THUMBNAIL_FORMAT, file.toFile());
+                return new Thumbnail(etag, mimeType, file, (int) Files.size(file));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * reads every n-th pixel, leaving at least twice the thumbnail size for the smooth scaling
+     */
+    private ImageReadParam getReadParam(ImageReader reader) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        int step = Math.max(reader.getWidth(0), reader.getHeight(0)) / (2 * thumbnailSize);
+        if (step > 1) param.setSourceSubsampling(step, step, 0, 0);
+        return param;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class PictureKey {
+        private final Class<?> entityClass;
+        private final String fieldName;
+        private final Object id;
+    }
+
+    /**
+     * ETag and MIME type of the picture, file of the thumbnail, null if the picture is not an image.
+     * The file is referenced by the cache and by every response sending it, it is deleted by the last one
+     */
+    @Getter
+    public static class Thumbnail {
+        static final Thumbnail EMPTY = new Thumbnail(null, null, null, 0);
+
+        private final String etag;
+        private final String mimeType;
+        private final Path file;
+        private final int size;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Thumbnail(String etag, String mimeType, Path file, int size) {
+            this.etag = etag;
+            this.mimeType = mimeType;
+            this.file = file;
+            this.size = size;
+        }
+
+        public boolean isEmpty() {
+            return etag == null;
+        }
+
+        public String getThumbnailMimeType() {
+            return "image/" + THUMBNAIL_FORMAT;
+        }
+
+        /**
+         * @return false if the thumbnail has been dropped and its file deleted, nothing is written then
+         */
+        public boolean copyTo(OutputStream outputStream) throws IOException {
+            if (!retain()) return false;
+            try {
+                Files.copy(file, outputStream);
+                return true;
+            } finally {
+                release();
+            }
+        }
+
+        private boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) return false;
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() != 0 || file == null) return;
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package agi.core.dao;
+
+import agi.core.annotations.AgiEntity;
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.vaadin.data.provider.QuerySortOrder;
+import com.vaadin.shared.data.sort.SortDirection;
+import org.junit.Test;
+
+import javax.persistence.Id;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LinkedObjectLookupTest {
+
+    private final EntityMetadataRegistry metadataRegistry = new EntityMetadataRegistry();
+
+    @Test
+    public void indexMatchesPrefixIgnoringCase() {
+        LinkedObjectLookup.LookupIndex index = index();
+        assertEquals(ImmutableList.of("Petrov", "Petrova"), captions(index.find(LinkedObjectLookup.normalize("PET")).values()));
+        assertTrue(index.find("rov").isEmpty());
+        assertEquals(4, index.find("").size());
+    }
+
+    @Test
+    public void indexResolvesItemsById() {
+        LinkedObjectLookup.LookupIndex index = index();
+        index.put(new LookupItem(2L, "Ivanov"), "ivanov");
+        assertEquals("Ivanov", index.get(2L).getCaption());
+        assertEquals(ImmutableList.of("Ivanov", "Ivanova"), captions(index.find("iv").values()));
+        index.remove(2L);
+        assertNull(index.get(2L));
+        assertTrue(index.find("pet").containsValue(new LookupItem(3L, "")));
+    }
+
+    @Test
+    public void databaseMatchesPrefixOfTheSearchField() {
+        LinkedObjectLookup lookup = new LinkedObjectLookup();
+        lookup.metadataRegistry = metadataRegistry;
+        Set<CriteriaFilter> filterSet = lookup.getFilterSet(Account.class, "12");
+        CriteriaFilter filter = Iterables.getOnlyElement(filterSet);
+        assertEquals(CompareType.STARTS_WITH, filter.getCompareType());
+        assertTrue(lookup.getFilterSet(Account.class, "").isEmpty());
+
+        QueryShape shape = QueryShape.of(Account.class,
+                ImmutableList.of(new QuerySignature.FilterEntry("number", CompareType.STARTS_WITH, "12")),
+                ImmutableList.of(asc("number"), asc("id")), false, true);
+        EntityMetadata metadata = metadataRegistry.getMetadata(Account.class);
+        QueryTemplate template = new QueryTemplate(shape, "Account", metadata, null,
+                new ProjectionColumns(metadata, metadataRegistry::findMetadata));
+        assertEquals("select e.id, e.number from Account e where str(e.number) like :p0 order by e.number asc, e.id asc",
+                template.getLookupJpql());
+    }
+
+    private static LinkedObjectLookup.LookupIndex index() {
+        LinkedObjectLookup.LookupIndex index = new LinkedObjectLookup.LookupIndex();
+        index.put(new LookupItem(1L, "Ivanova"), "ivanova");
+        index.put(new LookupItem(2L, "Sidorov"), "sidorov");
+        index.put(new LookupItem(3L, "Petrov"), "petrov");
+        index.put(new LookupItem(4L, "Petrova"), "petrova");
+        return index;
+    }
+
+    private static List<String> captions(Iterable<LookupItem> items) {
+        List<String> captions = new ArrayList<>();
+        items.forEach(item -> captions.add(item.getCaption()));
+        return captions;
+    }
+
+    private static QuerySortOrder asc(String fieldName) {
+        return new QuerySortOrder(fieldName, SortDirection.ASCENDING);
+    }
+
+    @AgiEntity(nameForInputSearch = "number")
+    static class Account {
+        @Id
+        Long id;
+        Integer number;
+    }
+}
@@ -0,0 +1,123 @@
+package agi.core.dao;
+
+import agi.core.annotations.AgiEntity;
+import agi.core.annotations.LinkedObject;
+import agi.core.metadata.EntityMetadata;
+import agi.core.metadata.EntityMetadataRegistry;
+import com.google.common.collect.ImmutableList;
+import com.vaadin.data.provider.QuerySortOrder;
+import com.vaadin.shared.data.sort.SortDirection;
+import org.junit.Test;
+
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class QueryTemplateTest {
+
+    private final EntityMetadataRegistry metadataRegistry = new EntityMetadataRegistry();
+
+    @Test
+    public void keysetOverSingleColumn() {
+        assertEquals("select e.id, e.name, e.sum, l3.id, l3.name from Deal e left join e.client l3"
+                        + " where ((e.id > :k0)) order by e.id asc",
+                keysetTemplate(ImmutableList.of(), asc("id")).getSelectJpql());
+    }
+
+    @Test
+    public void keysetOverSeveralColumnsComparesTiesByTheNextColumn() {
+        assertEquals(" where ((e.name > :k0) or (e.name = :k0 and e.sum > :k1) or (e.name = :k0 and e.sum = :k1 and e.id > :k2))"
+                        + " order by e.name asc, e.sum asc, e.id asc",
+                where(keysetTemplate(ImmutableList.of(), asc("name"), asc("sum"), asc("id"))));
+    }
+
+    @Test
+    public void keysetOverDescendingColumnTakesNulls() {
+        assertEquals(" where (((e.sum < :k0 or e.sum is null)) or (e.sum = :k0 and e.id > :k1))"
+                        + " order by e.sum desc, e.id asc",
+                where(keysetTemplate(ImmutableList.of(), desc("sum"), asc("id"))));
+    }
+
+    @Test
+    public void keysetFollowsFilters() {
+        List<QuerySignature.FilterEntry> filters = ImmutableList.of(
+                new QuerySignature.FilterEntry("name", CompareType.LIKE, "a"),
+                new QuerySignature.FilterEntry("sum", CompareType.EQUALS, 1.0));
+        assertEquals(" where e.name like :p0 and e.sum = :p1"
+                        + " and (((e.name < :k0 or e.name is null)) or (e.name = :k0 and e.id > :k1))"
+                        + " order by e.name desc, e.id asc",
+                where(keysetTemplate(filters, desc("name"), asc("id"))));
+    }
+
+    @Test
+    public void offsetShapeHasNoKeysetCondition() {
+        QueryShape shape = QueryShape.of(Deal.class, ImmutableList.of(), ImmutableList.of(asc("name")), false, true);
+        assertEquals(" order by e.name asc", where(template(shape)));
+    }
+
+    @Test
+    public void projectionFillsLinkedObjectByIdAndSearchField() {
+        ProjectionColumns columns = projectionColumns();
+        Deal deal = new Deal();
+        columns.fill(deal, new Object[]{1L, "deal", 2.0, 5L, "Bob"});
+        assertEquals(Long.valueOf(1L), deal.id);
+        assertEquals(Long.valueOf(5L), deal.client.id);
+        assertEquals("Bob", deal.client.name);
+        assertEquals("Bob", columns.represent(new Object[]{1L, "deal", 2.0, 5L, "Bob"}, 3));
+        assertEquals("2.0", columns.represent(new Object[]{1L, "deal", 2.0, 5L, "Bob"}, 2));
+    }
+
+    @Test
+    public void projectionLeavesMissingLinkNull() {
+        Deal deal = new Deal();
+        projectionColumns().fill(deal, new Object[]{1L, "deal", 2.0, null, null});
+        assertNull(deal.client);
+    }
+
+    private QueryTemplate keysetTemplate(List<QuerySignature.FilterEntry> filters, QuerySortOrder... sortOrders) {
+        return template(QueryShape.of(Deal.class, filters, ImmutableList.copyOf(sortOrders), true, true));
+    }
+
+    private QueryTemplate template(QueryShape shape) {
+        EntityMetadata metadata = metadataRegistry.getMetadata(Deal.class);
+        return new QueryTemplate(shape, "Deal", metadata, null, projectionColumns());
+    }
+
+    private ProjectionColumns projectionColumns() {
+        return new ProjectionColumns(metadataRegistry.getMetadata(Deal.class), metadataRegistry::findMetadata);
+    }
+
+    private static String where(QueryTemplate template) {
+        String jpql = template.getSelectJpql();
+        return jpql.substring(jpql.indexOf(" left join e.client l3") + " left join e.client l3".length());
+    }
+
+    private static QuerySortOrder asc(String fieldName) {
+        return new QuerySortOrder(fieldName, SortDirection.ASCENDING);
+    }
+
+    private static QuerySortOrder desc(String fieldName) {
+        return new QuerySortOrder(fieldName, SortDirection.DESCENDING);
+    }
+
+    @AgiEntity(nameForInputSearch = "name")
+    static class Deal {
+        @Id
+        Long id;
+        String name;
+        double sum;
+        @LinkedObject
+        @ManyToOne
+        Client client;
+    }
+
+    @AgiEntity(nameForInputSearch = "name")
+    static class Client {
+        @Id
+        Long id;
+        String name;
+    }
+}
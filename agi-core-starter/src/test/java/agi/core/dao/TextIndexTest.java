@@ -0,0 +1,62 @@
+package agi.core.dao;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TextIndexTest {
+
+    @Test
+    public void gramsAreDistinctTrigrams() {
+        assertEquals(ImmutableSet.of("aba", "bab"), TextIndex.grams("ababa"));
+        assertEquals(ImmutableSet.of("abc"), TextIndex.grams("abc"));
+        assertTrue(TextIndex.grams("ab").isEmpty());
+    }
+
+    @Test
+    public void findsSubstringsIgnoringCase() {
+        TextIndex.FieldIndex index = new TextIndex.FieldIndex();
+        index.put(1L, "Ivan Petrov");
+        index.put(2L, "Petr Ivanov");
+        index.put(3L, "Sidorov");
+        assertEquals(ImmutableSet.of(1L, 2L), index.find(TextIndex.normalize("PETR"), 10));
+        assertEquals(ImmutableSet.of(1L, 3L), index.find("rov", 10));
+        assertEquals(ImmutableSet.of(), index.find("xyz", 10));
+    }
+
+    @Test
+    public void candidatesHavingAllTrigramsApartAreVerified() {
+        TextIndex.FieldIndex index = new TextIndex.FieldIndex();
+        index.put(1L, "abc bcd");
+        index.put(2L, "abcd");
+        assertEquals(ImmutableSet.of(2L), index.find("abcd", 10));
+    }
+
+    @Test
+    public void putReplacesAndRemoveDropsTheValue() {
+        TextIndex.FieldIndex index = new TextIndex.FieldIndex();
+        index.put(1L, "first");
+        index.put(1L, "second");
+        assertEquals(ImmutableSet.of(), index.find("fir", 10));
+        assertEquals(ImmutableSet.of(1L), index.find("sec", 10));
+        index.remove(1L);
+        assertEquals(ImmutableSet.of(), index.find("sec", 10));
+        assertEquals(0, index.size());
+        index.put(2L, null);
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void tooManyMatchesAreNotAnswered() {
+        TextIndex.FieldIndex index = new TextIndex.FieldIndex();
+        for (long id = 0; id < 5; id++) {
+            index.put(id, "value " + id);
+        }
+        assertEquals(5, index.find("val", 5).size());
+        assertNull(index.find("val", 4));
+        assertNull(index.find("va", 4));
+    }
+}
@@ -1,38 +1,27 @@
 package example;
 
-import agi.core.SessionUIHolder;
+import agi.core.SessionRegistry;
 import agi.core.form.IUIHandler;
+import com.vaadin.annotations.Push;
 import com.vaadin.server.VaadinRequest;
 import com.vaadin.spring.annotation.SpringUI;
 import com.vaadin.ui.UI;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 
-import java.lang.ref.WeakReference;
-
+@Push
 @SpringUI
 public class MainUI extends UI {
 
     @Autowired
     private ApplicationContext context;
+    @Autowired
+    private SessionRegistry sessionRegistry;
 
     @Override
     protected void init(VaadinRequest vaadinRequest) {
 
-        IUIHandler uiHandler = null;
-        String sessionId = vaadinRequest.getWrappedSession().getId();
-        WeakReference<IUIHandler> weakReference = SessionUIHolder.sessionsMap.get(sessionId);
-        if (weakReference != null) {
-            if (weakReference.get() == null) {
-                SessionUIHolder.removeSession(sessionId);
-            } else {
-                uiHandler = weakReference.get();
-            }
-        }
-        if (uiHandler == null) {
-            uiHandler = context.getBean(IUIHandler.class);
-            SessionUIHolder.sessionsMap.put(vaadinRequest.getWrappedSession().getId(), new WeakReference<>(uiHandler));
-        }
+        IUIHandler uiHandler = sessionRegistry.getUIHandler(vaadinRequest, () -> context.getBean(IUIHandler.class));
         setContent(uiHandler.getMainLayout());
         setSizeFull();
     }
@@ -1,6 +1,7 @@
 package example.entity;
 
 import agi.core.annotations.*;
+import agi.core.dao.LoadMode;
 import example.ClientLevel;
 import lombok.*;
 
@@ -12,7 +13,9 @@ import java.util.Set;
 @AgiEntity(menuCaption = "Our Customers ",
         singleCaption = "Customer",
         nameForInputSearch = "name",
-        menuPath = "/Trade")
+        menuPath = "/Trade",
+        load = LoadMode.PROJECTION)
+@AgiCacheable
 @RepresentationResolver("getFullName")
 @Getter
 @Setter
@@ -31,7 +34,7 @@ public class Customer {
     @Column
     @Synonym("Customer caption")
     @AgiDrawOrder(value = 2)
-    @Filtered
+    @Filtered(textIndex = true)
     private String name;
 
     @Column
@@ -3,6 +3,7 @@ package example.entity;
 import agi.core.annotations.*;
 import com.vaadin.icons.VaadinIcons;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.ToString;
 
 import javax.persistence.*;
@@ -34,6 +35,9 @@ public class Invoice {
     @Column
     @Picture
     @Lob
+    @Basic(fetch = FetchType.LAZY)
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
     byte[] photo;
 
     //goods
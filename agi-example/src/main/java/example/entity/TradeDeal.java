@@ -4,6 +4,9 @@ import agi.core.annotations.AgiEntity;
 import agi.core.annotations.LinkedObject;
 import agi.core.annotations.RepresentationResolver;
 import agi.core.annotations.Synonym;
+import agi.core.dao.CountMode;
+import agi.core.dao.PaginationMode;
+import agi.core.dao.SaveMode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -14,7 +17,11 @@ import javax.persistence.*;
 @Table(name = "trade_deals")
 @AgiEntity(menuCaption = "Trade deals",
         singleCaption = "Trade deal", nameForInputSearch = "id",
-        menuPath = "/Trade")
+        menuPath = "/Trade",
+        pagination = PaginationMode.KEYSET,
+        count = CountMode.ESTIMATED,
+        save = SaveMode.LEAN,
+        multiSelect = true)
 @Getter
 @Setter
 @NoArgsConstructor
@@ -0,0 +1,310 @@
+package agi.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Generates an agi.core.metadata.EntityDescriptor for every top level {@code @AgiEntity} and {@code @AgiForm} class:
+ * captions, draw orders, filter and column flags of the fields with lambdas reading and writing them.
+ * The descriptors are registered in META-INF/services, the classes are listed in META-INF/agi.index.
+ * Both files keep the entries of the previous compilations whose classes are still annotated,
+ * so an incremental compilation of some classes doesn't drop the others.
+ * Fields are accessed directly when they are not private, private ones through the getters and setters
+ * the class really has, including the ones Lombok has already added to it: Lombok has to be listed before
+ * agi-processor in the annotation processor path. A private field without a getter is left to the reflection of the runtime
+ */
+@SupportedAnnotationTypes({AgiDescriptorProcessor.AGI_ENTITY, AgiDescriptorProcessor.AGI_FORM})
+public class AgiDescriptorProcessor extends AbstractProcessor {
+
+    static final String AGI_ENTITY = "agi.core.annotations.AgiEntity";
+    static final String AGI_FORM = "agi.core.annotations.AgiForm";
+    static final String DESCRIPTOR_SUFFIX = "_AgiDescriptor";
+    static final String DESCRIPTOR_SERVICE = "META-INF/services/agi.core.metadata.EntityDescriptor";
+    static final String INDEX = "META-INF/agi.index";
+
+    private static final String SYNONYM = "agi.core.annotations.Synonym";
+    private static final String DRAW_ORDER = "agi.core.annotations.AgiDrawOrder";
+    private static final String FILTERED = "agi.core.annotations.Filtered";
+    private static final String PICTURE = "agi.core.annotations.Picture";
+    private static final String AUTOWIRED = "org.springframework.beans.factory.annotation.Autowired";
+
+    private Elements elements;
+    private Types types;
+    private Filer filer;
+    private final Set<String> annotatedClasses = new TreeSet<>();
+    private final Set<String> descriptors = new TreeSet<>();
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+        filer = processingEnv.getFiler();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) continue;
+                TypeElement type = (TypeElement) element;
+                if (!annotatedClasses.add(elements.getBinaryName(type).toString())) continue;
+                if (type.getNestingKind() != NestingKind.TOP_LEVEL || !type.getTypeParameters().isEmpty()) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                            "No descriptor is generated for a nested or generic class", type);
+                    continue;
+                }
+                try {
+                    generate(type);
+                } catch (IOException e) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Can't write the descriptor: " + e.getMessage(), type);
+                }
+            }
+        }
+        if (roundEnv.processingOver() && !annotatedClasses.isEmpty()) {
+            for (String descriptor : readResource(DESCRIPTOR_SERVICE)) {
+                if (isAnnotated(descriptor.substring(0, descriptor.length() - DESCRIPTOR_SUFFIX.length()))) {
+                    descriptors.add(descriptor);
+                }
+            }
+            for (String annotatedClass : readResource(INDEX)) {
+                if (isAnnotated(annotatedClass)) annotatedClasses.add(annotatedClass);
+            }
+            writeResource(DESCRIPTOR_SERVICE, descriptors);
+            writeResource(INDEX, annotatedClasses);
+        }
+        return false;
+    }
+
+    private void generate(TypeElement type) throws IOException {
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String className = type.getSimpleName().toString();
+        String descriptorName = className + DESCRIPTOR_SUFFIX;
+        String qualifiedName = packageName.isEmpty() ? descriptorName : packageName + '.' + descriptorName;
+
+        try (PrintWriter out = new PrintWriter(filer.createSourceFile(qualifiedName, type).openWriter())) {
+            if (!packageName.isEmpty()) out.println("package " + packageName + ";\n");
+            out.println("/**\n * Generated by agi-processor from {@link " + className + "}\n */");
+            out.println("public final class " + descriptorName
+                    + " implements agi.core.metadata.EntityDescriptor<" + className + "> {\n");
+            out.println("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            out.println("    private static final java.util.List<agi.core.metadata.PropertyDescriptor<" + className
+                    + ", ?>> PROPERTIES = java.util.Collections.unmodifiableList(java.util.Arrays.asList(");
+            String separator = "";
+            for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+                if (field.getModifiers().contains(Modifier.STATIC) || findAnnotation(field, AUTOWIRED) != null)
+                    continue;
+                String property = generateProperty(type, className, field);
+                if (property == null) continue;
+                out.print(separator + property);
+                separator = ",\n";
+            }
+            out.println("));\n");
+            out.println("    @Override\n    public Class<" + className + "> getEntityClass() {\n        return "
+                    + className + ".class;\n    }\n");
+            out.println("    @Override\n    public String getCaption() {\n        return "
+                    + literal(getCaption(type)) + ";\n    }\n");
+            out.println("    @Override\n    public java.util.List<agi.core.metadata.PropertyDescriptor<" + className
+                    + ", ?>> getProperties() {\n        return PROPERTIES;\n    }\n}");
+        }
+        descriptors.add(qualifiedName);
+    }
+
+    /**
+     * @return constructor of the PropertyDescriptor, null if the field can't be accessed by the generated code
+     */
+    private String generateProperty(TypeElement type, String className, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        TypeMirror fieldType = field.asType();
+        boolean isPrivate = field.getModifiers().contains(Modifier.PRIVATE);
+        String accessorSuffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        String getterName = (fieldType.getKind() == TypeKind.BOOLEAN ? "is" : "get") + accessorSuffix;
+        String setterName = "set" + accessorSuffix;
+
+        String getter;
+        if (!isPrivate) getter = "entity -> entity." + name;
+        else if (hasAccessor(type, getterName, 0)) getter = "entity -> entity." + getterName + "()";
+        else return null;
+        String setter;
+        if (field.getModifiers().contains(Modifier.FINAL)) setter = "null";
+        else if (!isPrivate) setter = "(entity, value) -> entity." + name + " = value";
+        else if (hasAccessor(type, setterName, 1)) setter = "(entity, value) -> entity." + setterName + "(value)";
+        else setter = "null";
+
+        String valueType = fieldType.getKind().isPrimitive()
+                ? types.boxedClass((PrimitiveType) fieldType).getQualifiedName().toString()
+                : types.erasure(fieldType).toString();
+        String classLiteral = (fieldType.getKind().isPrimitive() ? fieldType.toString() : types.erasure(fieldType).toString())
+                + ".class";
+        AnnotationMirror synonym = findAnnotation(field, SYNONYM);
+        AnnotationMirror drawOrder = findAnnotation(field, DRAW_ORDER);
+        String caption = synonym == null ? name : (String) getValue(synonym, "value");
+        boolean picture = types.erasure(fieldType).toString().equals("byte[]") && findAnnotation(field, PICTURE) != null;
+        boolean column = !isCollection(fieldType) && !picture;
+
+        return "            new agi.core.metadata.PropertyDescriptor<" + className + ", " + valueType + ">("
+                + literal(name) + ", " + classLiteral + ", " + literal(caption) + ", "
+                + (drawOrder == null ? 0 : getValue(drawOrder, "value")) + ", "
+                + (findAnnotation(field, FILTERED) != null) + ", " + column + ",\n"
+                + "                    " + getter + ", " + setter + ")";
+    }
+
+    /**
+     * same as FieldMetadata: a type which a Map, a List or a Set can be assigned to
+     */
+    private boolean isCollection(TypeMirror fieldType) {
+        if (fieldType.getKind().isPrimitive()) return false;
+        TypeMirror erasure = types.erasure(fieldType);
+        for (Class<?> collection : new Class<?>[]{Map.class, java.util.List.class, Set.class}) {
+            TypeMirror collectionType = types.erasure(elements.getTypeElement(collection.getName()).asType());
+            if (types.isAssignable(collectionType, erasure)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the class has a method of the name and parameter count which the generated descriptor can call,
+     * declared, inherited or generated by Lombok before this processor runs
+     */
+    private boolean hasAccessor(TypeElement type, String methodName, int parameterCount) {
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+            if (method.getSimpleName().contentEquals(methodName) && method.getParameters().size() == parameterCount
+                    && !method.getModifiers().contains(Modifier.STATIC) && isAccessible(type, method))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * the descriptor is in the package of the class
+     */
+    private boolean isAccessible(TypeElement type, ExecutableElement method) {
+        if (method.getModifiers().contains(Modifier.PUBLIC)) return true;
+        return !method.getModifiers().contains(Modifier.PRIVATE)
+                && elements.getPackageOf(method).equals(elements.getPackageOf(type));
+    }
+
+    private String getCaption(TypeElement type) {
+        AnnotationMirror agiEntity = findAnnotation(type, AGI_ENTITY);
+        String caption = agiEntity != null
+                ? (String) getValue(agiEntity, "menuCaption")
+                : (String) getValue(findAnnotation(type, AGI_FORM), "caption");
+        return caption.isEmpty() ? elements.getBinaryName(type).toString() : caption;
+    }
+
+    private AnnotationMirror findAnnotation(Element element, String annotationName) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName))
+                return mirror;
+        }
+        return null;
+    }
+
+    private Object getValue(AnnotationMirror mirror, String member) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : elements.getElementValuesWithDefaults(mirror).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(member)) return entry.getValue().getValue();
+        }
+        return null;
+    }
+
+    /**
+     * @param binaryName name of a class listed by a previous compilation
+     * @return the class still exists and is annotated by {@code @AgiEntity} or {@code @AgiForm}
+     */
+    private boolean isAnnotated(String binaryName) {
+        TypeElement type = elements.getTypeElement(binaryName.replace('$', '.'));
+        return type != null && (findAnnotation(type, AGI_ENTITY) != null || findAnnotation(type, AGI_FORM) != null);
+    }
+
+    /**
+     * @return lines written by a previous compilation, empty if there is none
+     */
+    private List<String> readResource(String location) {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                filer.getResource(StandardLocation.CLASS_OUTPUT, "", location).openReader(true))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.trim().isEmpty()) lines.add(line.trim());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // nothing has been written yet
+        }
+        return lines;
+    }
+
+    private void writeResource(String location, Collection<String> lines) {
+        try (Writer writer = filer.createResource(StandardLocation.CLASS_OUTPUT, "", location).openWriter()) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    literal.append("\\\"");
+                    break;
+                case '\\':
+                    literal.append("\\\\");
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                case '\t':
+                    literal.append("\\t");
+                    break;
+                default:
+                    literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+}